@@ -101,6 +101,7 @@ import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.core.options.Config;
 import org.geometerplus.zlibrary.core.resources.ZLResource;
 import org.geometerplus.zlibrary.core.view.ZLViewWidget;
+import org.geometerplus.zlibrary.text.model.ZLTextSearch;
 import org.geometerplus.zlibrary.text.view.ZLTextRegion;
 import org.geometerplus.zlibrary.text.view.ZLTextView;
 import org.geometerplus.zlibrary.ui.android.R;
@@ -1068,20 +1069,33 @@ public final class FBReader extends FBReaderMainActivity implements ZLApplicatio
             new RunPluginAction(this, myFBReaderApp, data).run();
         } else if (Intent.ACTION_SEARCH.equals(action)) {
             final String pattern = intent.getStringExtra(SearchManager.QUERY);
-            final Runnable runnable = () -> {
-                final TextSearchPopup popup = (TextSearchPopup) myFBReaderApp.getPopupById(TextSearchPopup.ID);
-                popup.initPosition();
-                myFBReaderApp.MiscOptions.TextSearchPattern.setValue(pattern);
-                if (myFBReaderApp.getTextView().search(pattern, true, false, false, false) != 0) {
-                    runOnUiThread(() -> myFBReaderApp.showPopup(popup.getId()));
-                } else {
-                    runOnUiThread(() -> {
-                        UIMessageUtil.showErrorMessage(FBReader.this, "textNotFound");
-                        popup.StartPosition = null;
-                    });
-                }
+            final TextSearchPopup popup = (TextSearchPopup) myFBReaderApp.getPopupById(TextSearchPopup.ID);
+            popup.initPosition();
+            myFBReaderApp.MiscOptions.TextSearchPattern.setValue(pattern);
+            final Runnable notFound = () -> {
+                UIMessageUtil.showErrorMessage(FBReader.this, "textNotFound");
+                popup.StartPosition = null;
             };
-            UIUtil.wait("search", runnable, this);
+            // the popup is shown with the first found marks, the rest of the book is searched in background
+            final ZLTextSearch search = myFBReaderApp.getTextView().startSearch(pattern, true, false, false, false, new ZLTextView.SearchListener() {
+                private boolean myPopupIsShown;
+
+                public void onSearchProgress(int count) {
+                    if (!myPopupIsShown) {
+                        myPopupIsShown = true;
+                        runOnUiThread(() -> myFBReaderApp.showPopup(popup.getId()));
+                    }
+                }
+
+                public void onSearchFinished(int count) {
+                    if (count == 0) {
+                        runOnUiThread(notFound);
+                    }
+                }
+            });
+            if (search == null) {
+                notFound.run();
+            }
         } else if (FBReaderIntents.Action.CLOSE.equals(intent.getAction())) {
             myCancelIntent = intent;
             myOpenBookIntent = null;
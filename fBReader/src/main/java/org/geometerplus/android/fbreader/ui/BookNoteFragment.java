@@ -28,6 +28,7 @@ import org.geometerplus.fbreader.book.Bookmark;
 import org.geometerplus.fbreader.book.BookmarkQuery;
 import org.geometerplus.fbreader.book.HighlightingStyle;
 import org.geometerplus.fbreader.book.IBookCollection;
+import org.geometerplus.fbreader.bookmodel.TOCIndex;
 import org.geometerplus.fbreader.bookmodel.TOCTree;
 import org.geometerplus.fbreader.fbreader.FBReaderApp;
 import org.geometerplus.zlibrary.core.application.ZLApplication;
@@ -56,7 +57,7 @@ public class BookNoteFragment extends BaseFragment implements IBookCollection.Li
     private volatile Book myBook;
     private volatile BookmarksAdapter myThisBookAdapter;
 
-    private TOCTree root;
+    private TOCIndex root;
 
     @Override
     protected void initData() {
@@ -84,7 +85,7 @@ public class BookNoteFragment extends BaseFragment implements IBookCollection.Li
 
         final FBReaderApp fbReader = (FBReaderApp) ZLApplication.Instance();
         // 获取目录索引树
-        root = fbReader.Model.TOCTree;
+        root = fbReader.Model.getTOCIndex();
     }
 
     @Override
@@ -134,17 +135,7 @@ public class BookNoteFragment extends BaseFragment implements IBookCollection.Li
         if (root == null) {
             return "";
         }
-        TOCTree treeToSelect = null;
-        for (TOCTree tree : root) {
-            final TOCTree.Reference reference = tree.getReference();
-            if (reference == null) {
-                continue;
-            }
-            if (reference.ParagraphIndex > paragraphIndex) {
-                break;
-            }
-            treeToSelect = tree;
-        }
+        final TOCTree treeToSelect = root.getElement(paragraphIndex);
         return treeToSelect == null ? "" : treeToSelect.getText();
     }
 
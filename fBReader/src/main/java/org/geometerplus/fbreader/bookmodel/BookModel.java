@@ -19,6 +19,7 @@
 
 package org.geometerplus.fbreader.bookmodel;
 
+import java.io.File;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.fonts.*;
@@ -33,6 +34,7 @@ public final class BookModel {
 		if (plugin instanceof BuiltinFormatPlugin) {
 			final BookModel model = new BookModel(book);
 			((BuiltinFormatPlugin)plugin).readModel(model);
+			model.getTOCIndex();
 			return model;
 		}
 
@@ -46,9 +48,26 @@ public final class BookModel {
 	public final FontManager FontManager = new FontManager();
 
 	protected CachedCharStorage myInternalHyperlinks;
+	String myInternalHyperlinksExtension;
+	int myInternalHyperlinksBlocksNumber;
 	protected final HashMap<String,ZLImage> myImageMap = new HashMap<String,ZLImage>();
 	protected ZLTextModel myBookTextModel;
-	protected final HashMap<String,ZLTextModel> myFootnotes = new HashMap<String,ZLTextModel>();
+
+	// number of built footnote models kept in memory
+	private static final int FOOTNOTE_CACHE_SIZE = 16;
+
+	// footnote models are built on first request, from these descriptors
+	final LinkedHashMap<String,FootnoteDescriptor> myFootnoteDescriptors =
+		new LinkedHashMap<String,FootnoteDescriptor>();
+	private final LinkedHashMap<String,ZLTextModel> myFootnotes =
+		new LinkedHashMap<String,ZLTextModel>(FOOTNOTE_CACHE_SIZE, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,ZLTextModel> eldest) {
+				return size() > FOOTNOTE_CACHE_SIZE;
+			}
+		};
+	// storages by block file names; models written into the same files share one
+	private final HashMap<String,CachedCharStorage> myStorages = new HashMap<String,CachedCharStorage>();
 
 	public static final class Label {
 		public final String ModelId;
@@ -60,6 +79,55 @@ public final class BookModel {
 		}
 	}
 
+	static final class TextModelParameters {
+		final int ParagraphsNumber;
+		final int[] EntryIndices;
+		final int[] EntryOffsets;
+		final int[] ParagraphLengths;
+		final int[] TextSizes;
+		final byte[] ParagraphKinds;
+		final String DirectoryName;
+		final String FileExtension;
+		final int BlocksNumber;
+
+		TextModelParameters(
+			int paragraphsNumber,
+			int[] entryIndices, int[] entryOffsets,
+			int[] paragraphLengths, int[] textSizes, byte[] paragraphKinds,
+			String directoryName, String fileExtension, int blocksNumber
+		) {
+			ParagraphsNumber = paragraphsNumber;
+			EntryIndices = entryIndices;
+			EntryOffsets = entryOffsets;
+			ParagraphLengths = paragraphLengths;
+			TextSizes = textSizes;
+			ParagraphKinds = paragraphKinds;
+			DirectoryName = directoryName;
+			FileExtension = fileExtension;
+			BlocksNumber = blocksNumber;
+		}
+	}
+
+	static final class FootnoteDescriptor {
+		final String Id;
+		final String Language;
+		final TextModelParameters Parameters;
+		// set only for a model that was not created by createTextModel
+		// and so cannot be rebuilt
+		final ZLTextModel Model;
+
+		FootnoteDescriptor(String id, String language, TextModelParameters parameters, ZLTextModel model) {
+			Id = id;
+			Language = language;
+			Parameters = parameters;
+			Model = model;
+		}
+	}
+
+	// creation parameters of text models, kept for the persistent model cache
+	final Map<ZLTextModel,TextModelParameters> myTextModelParameters =
+		new IdentityHashMap<ZLTextModel,TextModelParameters>();
+
 	protected BookModel(Book book) {
 		Book = book;
 	}
@@ -105,28 +173,107 @@ public final class BookModel {
 		int[] paragraphLenghts, int[] textSizes, byte[] paragraphKinds,
 		String directoryName, String fileExtension, int blocksNumber
 	) {
-		return new ZLTextPlainModel(
+		final ZLTextModel model = new ZLTextPlainModel(
 			id, language, paragraphsNumber,
 			entryIndices, entryOffsets,
 			paragraphLenghts, textSizes, paragraphKinds,
-			directoryName, fileExtension, blocksNumber, myImageMap, FontManager
+			storage(directoryName, fileExtension, blocksNumber), myImageMap, FontManager
 		);
+		myTextModelParameters.put(model, new TextModelParameters(
+			paragraphsNumber,
+			entryIndices, entryOffsets,
+			paragraphLenghts, textSizes, paragraphKinds,
+			directoryName, fileExtension, blocksNumber
+		));
+		return model;
+	}
+
+	private CachedCharStorage storage(String directoryName, String fileExtension, int blocksNumber) {
+		final String key = directoryName + '/' + fileExtension;
+		synchronized (myStorages) {
+			CachedCharStorage storage = myStorages.get(key);
+			if (storage == null || storage.size() != blocksNumber) {
+				storage = new CachedCharStorage(directoryName, fileExtension, blocksNumber);
+				myStorages.put(key, storage);
+			}
+			return storage;
+		}
 	}
 
 	public void setBookTextModel(ZLTextModel model) {
 		myBookTextModel = model;
 	}
 
+	/**
+	 * Registers a footnote. Only the creation parameters of the model are
+	 * kept; the model itself is rebuilt by getFootnoteModel() on demand.
+	 */
 	public void setFootnoteModel(ZLTextModel model) {
-		myFootnotes.put(model.getId(), model);
+		final TextModelParameters parameters = myTextModelParameters.remove(model);
+		myFootnoteDescriptors.put(model.getId(), new FootnoteDescriptor(
+			model.getId(), model.getLanguage(), parameters, parameters == null ? model : null
+		));
+		synchronized (myFootnotes) {
+			myFootnotes.remove(model.getId());
+		}
 	}
 
 	public ZLTextModel getTextModel() {
 		return myBookTextModel;
 	}
 
+	private String myCacheKey;
+
+	public void setCacheKey(String key) {
+		myCacheKey = key;
+	}
+
+	/**
+	 * @return key of the model in the persistent model cache (it is built
+	 * from the book content hash), or null if the model is not cached
+	 */
+	public String getCacheKey() {
+		return myCacheKey;
+	}
+
+	private File mySearchIndexFile;
+
+	public void setSearchIndexFile(File file) {
+		mySearchIndexFile = file;
+	}
+
+	/**
+	 * Starts loading (or building) the full-text search index of the book
+	 * text model in background; search works without the index until then.
+	 */
+	public void prepareSearchIndex() {
+		if (myBookTextModel instanceof ZLTextPlainModel) {
+			ZLTextSearchIndex.prepare((ZLTextPlainModel)myBookTextModel, mySearchIndexFile);
+		}
+	}
+
 	public ZLTextModel getFootnoteModel(String id) {
-		return myFootnotes.get(id);
+		final FootnoteDescriptor descriptor = myFootnoteDescriptors.get(id);
+		if (descriptor == null) {
+			return null;
+		}
+		if (descriptor.Model != null) {
+			return descriptor.Model;
+		}
+		synchronized (myFootnotes) {
+			ZLTextModel model = myFootnotes.get(id);
+			if (model == null) {
+				final TextModelParameters p = descriptor.Parameters;
+				model = new ZLTextPlainModel(
+					id, descriptor.Language, p.ParagraphsNumber,
+					p.EntryIndices, p.EntryOffsets,
+					p.ParagraphLengths, p.TextSizes, p.ParagraphKinds,
+					storage(p.DirectoryName, p.FileExtension, p.BlocksNumber), myImageMap, FontManager
+				);
+				myFootnotes.put(id, model);
+			}
+			return model;
+		}
 	}
 
 	public void addImage(String id, ZLImage image) {
@@ -135,6 +282,8 @@ public final class BookModel {
 
 	public void initInternalHyperlinks(String directoryName, String fileExtension, int blocksNumber) {
 		myInternalHyperlinks = new CachedCharStorage(directoryName, fileExtension, blocksNumber);
+		myInternalHyperlinksExtension = fileExtension;
+		myInternalHyperlinksBlocksNumber = blocksNumber;
 	}
 
 	private TOCTree myCurrentTree = TOCTree;
@@ -152,28 +301,134 @@ public final class BookModel {
 		}
 	}
 
-	private Label getLabelInternal(String id) {
-		final int len = id.length();
-		final int size = myInternalHyperlinks.size();
+	private volatile TOCIndex myTOCIndex;
+
+	/**
+	 * @return index of the TOC tree; built on first request, so the tree
+	 * must not be changed after that
+	 */
+	public TOCIndex getTOCIndex() {
+		TOCIndex index = myTOCIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = myTOCIndex;
+				if (index == null) {
+					index = new TOCIndex(TOCTree);
+					myTOCIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	// open-addressing index over myInternalHyperlinks: slot -> label number + 1
+	private int[] myLabelSlots;
+	private int[] myLabelHashes;
+	private int[] myLabelBlocks;
+	private int[] myLabelOffsets;
 
+	private static int labelHash(char[] block, int offset, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; ++i) {
+			hash = 31 * hash + block[offset + i];
+		}
+		return hash;
+	}
+
+	private static int mix(int hash) {
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		return hash ^ (hash >>> 13);
+	}
+
+	private synchronized void buildLabelIndex() {
+		if (myLabelSlots != null) {
+			return;
+		}
+
+		int count = 0;
+		int[] hashes = new int[64];
+		int[] blocks = new int[64];
+		int[] offsets = new int[64];
+		final int size = myInternalHyperlinks.size();
 		for (int i = 0; i < size; ++i) {
 			final char[] block = myInternalHyperlinks.block(i);
 			for (int offset = 0; offset < block.length; ) {
-				final int labelLength = (int)block[offset++];
+				final int labelLength = (int)block[offset];
 				if (labelLength == 0) {
 					break;
 				}
-				final int idLength = (int)block[offset + labelLength];
-				if (labelLength != len || !id.equals(new String(block, offset, labelLength))) {
-					offset += labelLength + idLength + 3;
-					continue;
+				if (count == hashes.length) {
+					hashes = Arrays.copyOf(hashes, 2 * count);
+					blocks = Arrays.copyOf(blocks, 2 * count);
+					offsets = Arrays.copyOf(offsets, 2 * count);
 				}
-				offset += labelLength + 1;
-				final String modelId = (idLength > 0) ? new String(block, offset, idLength) : null;
-				offset += idLength;
-				final int paragraphNumber = (int)block[offset] + (((int)block[offset + 1]) << 16);
-				return new Label(modelId, paragraphNumber);
+				hashes[count] = labelHash(block, offset + 1, labelLength);
+				blocks[count] = i;
+				offsets[count] = offset;
+				++count;
+				final int idLength = (int)block[offset + 1 + labelLength];
+				offset += labelLength + idLength + 4;
+			}
+		}
+
+		int capacity = 16;
+		while (capacity < 2 * count) {
+			capacity <<= 1;
+		}
+		final int[] slots = new int[capacity];
+		final int mask = capacity - 1;
+		for (int n = 0; n < count; ++n) {
+			int slot = mix(hashes[n]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = n + 1;
+		}
+
+		myLabelHashes = hashes;
+		myLabelBlocks = blocks;
+		myLabelOffsets = offsets;
+		myLabelSlots = slots;
+	}
+
+	private Label getLabelInternal(String id) {
+		if (myInternalHyperlinks == null) {
+			return null;
+		}
+		buildLabelIndex();
+
+		final int len = id.length();
+		final int hash = id.hashCode();
+		final int[] slots = myLabelSlots;
+		final int mask = slots.length - 1;
+		for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+			final int n = slots[slot] - 1;
+			if (myLabelHashes[n] != hash) {
+				continue;
+			}
+			final char[] block = myInternalHyperlinks.block(myLabelBlocks[n]);
+			int offset = myLabelOffsets[n];
+			final int labelLength = (int)block[offset++];
+			if (labelLength != len) {
+				continue;
+			}
+			boolean equal = true;
+			for (int i = 0; i < len; ++i) {
+				if (block[offset + i] != id.charAt(i)) {
+					equal = false;
+					break;
+				}
+			}
+			if (!equal) {
+				continue;
 			}
+			final int idLength = (int)block[offset + labelLength];
+			offset += labelLength + 1;
+			final String modelId = (idLength > 0) ? new String(block, offset, idLength) : null;
+			offset += idLength;
+			final int paragraphNumber = (int)block[offset] + (((int)block[offset + 1]) << 16);
+			return new Label(modelId, paragraphNumber);
 		}
 		return null;
 	}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.bookmodel;
+
+import java.io.*;
+import java.util.*;
+
+import org.geometerplus.zlibrary.core.fonts.*;
+import org.geometerplus.zlibrary.core.image.ZLFileImage;
+import org.geometerplus.zlibrary.core.image.ZLImage;
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/**
+ * Persistent cache of parsed book models.
+ *
+ * Every entry is a directory that contains the text blocks written by
+ * the native parser and an index file with everything the parser passes
+ * to BookModel: paragraph arrays, images, TOC, fonts and the internal
+ * hyperlinks storage. Restoring an entry replays the same BookModel calls
+ * in the same order as the native code does, so the restored model cannot
+ * be distinguished from a freshly parsed one.
+ */
+public final class BookModelCache {
+	private static final int FORMAT_VERSION = 1;
+	private static final String INDEX_FILE_NAME = "model.index";
+	private static final String SEARCH_INDEX_FILE_NAME = "search.index";
+
+	private final File myRoot;
+	private final long myMaxSize;
+	private final int myMaxEntries;
+
+	public BookModelCache(String rootDirectory, long maxSize, int maxEntries) {
+		myRoot = new File(rootDirectory);
+		myMaxSize = maxSize;
+		myMaxEntries = maxEntries;
+	}
+
+	/**
+	 * @return directory for the native parser output of the entry;
+	 * stale content of the directory is removed
+	 */
+	public String prepareDirectory(String key) {
+		final File dir = new File(myRoot, key);
+		deleteDirectory(dir);
+		dir.mkdirs();
+		return dir.getPath();
+	}
+
+	/**
+	 * @return location of the full-text search index of the entry;
+	 * the index is removed together with the entry
+	 */
+	public File searchIndexFile(String key) {
+		return new File(new File(myRoot, key), SEARCH_INDEX_FILE_NAME);
+	}
+
+	public boolean restore(BookModel model, String key) {
+		final File dir = new File(myRoot, key);
+		final File indexFile = new File(dir, INDEX_FILE_NAME);
+		if (!indexFile.exists()) {
+			return false;
+		}
+
+		final Index index;
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			index = Index.read(stream, dir.getPath());
+		} catch (IOException e) {
+			deleteDirectory(dir);
+			return false;
+		} finally {
+			close(stream);
+		}
+		if (!index.filesExist()) {
+			deleteDirectory(dir);
+			return false;
+		}
+
+		index.apply(model);
+		dir.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	public void store(BookModel model, String key) {
+		final Index index = Index.create(model);
+		if (index == null) {
+			return;
+		}
+
+		final File dir = new File(myRoot, key);
+		final File tmpFile = new File(dir, INDEX_FILE_NAME + ".tmp");
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			index.write(stream);
+			stream.close();
+			stream = null;
+			if (!tmpFile.renameTo(new File(dir, INDEX_FILE_NAME))) {
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+		} finally {
+			close(stream);
+		}
+		dir.setLastModified(System.currentTimeMillis());
+		trim(key);
+	}
+
+	private void trim(String keyToKeep) {
+		final File[] entries = myRoot.listFiles();
+		if (entries == null) {
+			return;
+		}
+		Arrays.sort(entries, new Comparator<File>() {
+			public int compare(File f0, File f1) {
+				final long diff = f1.lastModified() - f0.lastModified();
+				return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+			}
+		});
+		long size = 0;
+		int count = 0;
+		for (File entry : entries) {
+			if (!entry.isDirectory()) {
+				continue;
+			}
+			size += directorySize(entry);
+			++count;
+			if ((size > myMaxSize || count > myMaxEntries) && !entry.getName().equals(keyToKeep)) {
+				deleteDirectory(entry);
+			}
+		}
+	}
+
+	private static long directorySize(File dir) {
+		long size = 0;
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				size += f.length();
+			}
+		}
+		return size;
+	}
+
+	private static void deleteDirectory(File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static void close(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream stream, String value) throws IOException {
+		stream.writeBoolean(value != null);
+		if (value != null) {
+			stream.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream stream) throws IOException {
+		return stream.readBoolean() ? stream.readUTF() : null;
+	}
+
+	private static void writeIntArray(DataOutputStream stream, int[] array) throws IOException {
+		stream.writeInt(array.length);
+		for (int value : array) {
+			stream.writeInt(value);
+		}
+	}
+
+	private static int[] readIntArray(DataInputStream stream) throws IOException {
+		final int[] array = new int[stream.readInt()];
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = stream.readInt();
+		}
+		return array;
+	}
+
+	private static final class TextModelIndex {
+		final String Id;
+		final String Language;
+		final BookModel.TextModelParameters Parameters;
+
+		TextModelIndex(String id, String language, BookModel.TextModelParameters parameters) {
+			Id = id;
+			Language = language;
+			Parameters = parameters;
+		}
+
+		void write(DataOutputStream stream) throws IOException {
+			final BookModel.TextModelParameters p = Parameters;
+			writeString(stream, Id);
+			writeString(stream, Language);
+			stream.writeInt(p.ParagraphsNumber);
+			writeIntArray(stream, p.EntryIndices);
+			writeIntArray(stream, p.EntryOffsets);
+			writeIntArray(stream, p.ParagraphLengths);
+			writeIntArray(stream, p.TextSizes);
+			stream.writeInt(p.ParagraphKinds.length);
+			stream.write(p.ParagraphKinds);
+			stream.writeUTF(p.FileExtension);
+			stream.writeInt(p.BlocksNumber);
+		}
+
+		static TextModelIndex read(DataInputStream stream, String directoryName) throws IOException {
+			final String id = readString(stream);
+			final String language = readString(stream);
+			final int paragraphsNumber = stream.readInt();
+			final int[] entryIndices = readIntArray(stream);
+			final int[] entryOffsets = readIntArray(stream);
+			final int[] paragraphLengths = readIntArray(stream);
+			final int[] textSizes = readIntArray(stream);
+			final byte[] paragraphKinds = new byte[stream.readInt()];
+			stream.readFully(paragraphKinds);
+			final String fileExtension = stream.readUTF();
+			final int blocksNumber = stream.readInt();
+			return new TextModelIndex(id, language, new BookModel.TextModelParameters(
+				paragraphsNumber,
+				entryIndices, entryOffsets,
+				paragraphLengths, textSizes, paragraphKinds,
+				directoryName, fileExtension, blocksNumber
+			));
+		}
+
+		ZLTextModel create(BookModel model) {
+			final BookModel.TextModelParameters p = Parameters;
+			return model.createTextModel(
+				Id, Language, p.ParagraphsNumber,
+				p.EntryIndices, p.EntryOffsets,
+				p.ParagraphLengths, p.TextSizes, p.ParagraphKinds,
+				p.DirectoryName, p.FileExtension, p.BlocksNumber
+			);
+		}
+	}
+
+	private static final class Index {
+		private final String myDirectoryName;
+		private final LinkedHashMap<String,String> myImageUris = new LinkedHashMap<String,String>();
+		private String myHyperlinksExtension;
+		private int myHyperlinksBlocksNumber;
+		// depth-first sequence of TOC items; null text marks the end of a subtree
+		private final ArrayList<String> myTOCTexts = new ArrayList<String>();
+		private final ArrayList<Integer> myTOCReferences = new ArrayList<Integer>();
+		private final ArrayList<TextModelIndex> myTextModels = new ArrayList<TextModelIndex>();
+		private final ArrayList<List<String>> myFamilyLists = new ArrayList<List<String>>();
+		private final LinkedHashMap<String,String[]> myFontEntries = new LinkedHashMap<String,String[]>();
+
+		private Index(String directoryName) {
+			myDirectoryName = directoryName;
+		}
+
+		static Index create(BookModel model) {
+			final BookModel.TextModelParameters bookParameters =
+				model.myTextModelParameters.get(model.getTextModel());
+			if (bookParameters == null || model.myInternalHyperlinks == null) {
+				return null;
+			}
+			final Index index = new Index(bookParameters.DirectoryName);
+
+			for (Map.Entry<String,ZLImage> entry : model.myImageMap.entrySet()) {
+				final ZLImage image = entry.getValue();
+				if (!(image instanceof ZLFileImage)) {
+					return null;
+				}
+				index.myImageUris.put(entry.getKey(), image.getURI());
+			}
+
+			index.myHyperlinksExtension = model.myInternalHyperlinksExtension;
+			index.myHyperlinksBlocksNumber = model.myInternalHyperlinksBlocksNumber;
+
+			index.addTOCSubtrees(model.TOCTree);
+
+			final ZLTextModel bookModel = model.getTextModel();
+			index.myTextModels.add(new TextModelIndex(
+				bookModel.getId(), bookModel.getLanguage(), bookParameters
+			));
+			for (BookModel.FootnoteDescriptor footnote : model.myFootnoteDescriptors.values()) {
+				if (footnote.Parameters == null) {
+					return null;
+				}
+				index.myTextModels.add(new TextModelIndex(
+					footnote.Id, footnote.Language, footnote.Parameters
+				));
+			}
+
+			index.myFamilyLists.addAll(model.FontManager.familyLists());
+			synchronized (model.FontManager.Entries) {
+				for (Map.Entry<String,FontEntry> entry : model.FontManager.Entries.entrySet()) {
+					final FontEntry font = entry.getValue();
+					final String[] paths = new String[4];
+					for (int i = 0; i < 4; ++i) {
+						final FileInfo info = font.fileInfo((i & 1) != 0, (i & 2) != 0);
+						if (info != null) {
+							if (info.EncryptionInfo != null) {
+								return null;
+							}
+							paths[i] = info.Path;
+						}
+					}
+					index.myFontEntries.put(entry.getKey(), paths);
+				}
+			}
+			return index;
+		}
+
+		private void addTOCSubtrees(TOCTree tree) {
+			for (TOCTree subtree : tree.subtrees()) {
+				final TOCTree.Reference reference = subtree.getReference();
+				myTOCTexts.add(subtree.getText() != null ? subtree.getText() : "");
+				myTOCReferences.add(reference != null ? reference.ParagraphIndex : -1);
+				addTOCSubtrees(subtree);
+				myTOCTexts.add(null);
+				myTOCReferences.add(-1);
+			}
+		}
+
+		boolean filesExist() {
+			for (TextModelIndex text : myTextModels) {
+				if (!blocksExist(text.Parameters.FileExtension, text.Parameters.BlocksNumber)) {
+					return false;
+				}
+			}
+			return blocksExist(myHyperlinksExtension, myHyperlinksBlocksNumber);
+		}
+
+		private boolean blocksExist(String extension, int blocksNumber) {
+			for (int i = 0; i < blocksNumber; ++i) {
+				if (!new File(myDirectoryName, i + "." + extension).exists()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void write(DataOutputStream stream) throws IOException {
+			stream.writeInt(FORMAT_VERSION);
+
+			stream.writeInt(myImageUris.size());
+			for (Map.Entry<String,String> entry : myImageUris.entrySet()) {
+				stream.writeUTF(entry.getKey());
+				stream.writeUTF(entry.getValue());
+			}
+
+			stream.writeUTF(myHyperlinksExtension);
+			stream.writeInt(myHyperlinksBlocksNumber);
+
+			stream.writeInt(myTOCTexts.size());
+			for (int i = 0; i < myTOCTexts.size(); ++i) {
+				writeString(stream, myTOCTexts.get(i));
+				stream.writeInt(myTOCReferences.get(i));
+			}
+
+			stream.writeInt(myTextModels.size());
+			for (TextModelIndex text : myTextModels) {
+				text.write(stream);
+			}
+
+			stream.writeInt(myFamilyLists.size());
+			for (List<String> families : myFamilyLists) {
+				stream.writeInt(families.size());
+				for (String family : families) {
+					stream.writeUTF(family);
+				}
+			}
+
+			stream.writeInt(myFontEntries.size());
+			for (Map.Entry<String,String[]> entry : myFontEntries.entrySet()) {
+				stream.writeUTF(entry.getKey());
+				for (String path : entry.getValue()) {
+					writeString(stream, path);
+				}
+			}
+		}
+
+		static Index read(DataInputStream stream, String directoryName) throws IOException {
+			if (stream.readInt() != FORMAT_VERSION) {
+				throw new IOException("Unsupported model index version");
+			}
+			final Index index = new Index(directoryName);
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final String id = stream.readUTF();
+				index.myImageUris.put(id, stream.readUTF());
+			}
+
+			index.myHyperlinksExtension = stream.readUTF();
+			index.myHyperlinksBlocksNumber = stream.readInt();
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				index.myTOCTexts.add(readString(stream));
+				index.myTOCReferences.add(stream.readInt());
+			}
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				index.myTextModels.add(TextModelIndex.read(stream, directoryName));
+			}
+			if (index.myTextModels.isEmpty()) {
+				throw new IOException("No book text model in the index");
+			}
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final ArrayList<String> families = new ArrayList<String>();
+				for (int size = stream.readInt(); size > 0; --size) {
+					families.add(stream.readUTF());
+				}
+				index.myFamilyLists.add(families);
+			}
+
+			for (int count = stream.readInt(); count > 0; --count) {
+				final String family = stream.readUTF();
+				final String[] paths = new String[4];
+				for (int i = 0; i < 4; ++i) {
+					paths[i] = readString(stream);
+				}
+				index.myFontEntries.put(family, paths);
+			}
+			return index;
+		}
+
+		// replays BookModel calls in the order used by readModelNative
+		void apply(BookModel model) {
+			for (Map.Entry<String,String> entry : myImageUris.entrySet()) {
+				final String uri = entry.getValue();
+				final String prefix = ZLFileImage.SCHEME + "://";
+				final ZLFileImage image = uri.startsWith(prefix)
+					? ZLFileImage.byUrlPath(uri.substring(prefix.length())) : null;
+				if (image != null) {
+					model.addImage(entry.getKey(), image);
+				}
+			}
+
+			model.initInternalHyperlinks(myDirectoryName, myHyperlinksExtension, myHyperlinksBlocksNumber);
+
+			for (int i = 0; i < myTOCTexts.size(); ++i) {
+				final String text = myTOCTexts.get(i);
+				if (text != null) {
+					model.addTOCItem(text, myTOCReferences.get(i));
+				} else {
+					model.leaveTOCItem();
+				}
+			}
+
+			model.setBookTextModel(myTextModels.get(0).create(model));
+			for (int i = 1; i < myTextModels.size(); ++i) {
+				model.setFootnoteModel(myTextModels.get(i).create(model));
+			}
+
+			for (List<String> families : myFamilyLists) {
+				model.registerFontFamilyList(families.toArray(new String[families.size()]));
+			}
+			for (Map.Entry<String,String[]> entry : myFontEntries.entrySet()) {
+				final String[] paths = entry.getValue();
+				model.registerFontEntry(
+					entry.getKey(),
+					fileInfo(paths[0]), fileInfo(paths[1]), fileInfo(paths[2]), fileInfo(paths[3])
+				);
+			}
+		}
+
+		private static FileInfo fileInfo(String path) {
+			return path != null ? new FileInfo(path, null) : null;
+		}
+	}
+}
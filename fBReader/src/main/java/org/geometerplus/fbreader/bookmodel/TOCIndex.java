@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.fbreader.bookmodel;
+
+import java.util.*;
+
+/**
+ * Flattened TOC tree for paragraph lookups.
+ *
+ * Items are kept in the tree iteration order; an index is immutable
+ * and should be built when the tree is complete.
+ */
+public final class TOCIndex {
+	private static final int MAX_COUNTED_LEVEL = 10;
+
+	// all the items, the root first
+	private final TOCTree[] myTrees;
+	// items with references
+	private final TOCTree[] myReferencedTrees;
+	// maximal paragraph index of myReferencedTrees[0 .. i]
+	private final int[] myMaxParagraphIndices;
+	// number of items of level <= i
+	private final int[] myLevelSizes = new int[MAX_COUNTED_LEVEL];
+
+	TOCIndex(TOCTree root) {
+		myTrees = new TOCTree[root.getSize()];
+		int count = 0;
+		int referenced = 0;
+		for (TOCTree tree : root) {
+			myTrees[count++] = tree;
+			if (tree.getReference() != null) {
+				++referenced;
+			}
+			if (tree.Level < MAX_COUNTED_LEVEL) {
+				++myLevelSizes[tree.Level];
+			}
+		}
+		for (int i = 1; i < MAX_COUNTED_LEVEL; ++i) {
+			myLevelSizes[i] += myLevelSizes[i - 1];
+		}
+
+		myReferencedTrees = new TOCTree[referenced];
+		myMaxParagraphIndices = new int[referenced];
+		int max = Integer.MIN_VALUE;
+		int index = 0;
+		for (TOCTree tree : myTrees) {
+			final TOCTree.Reference reference = tree.getReference();
+			if (reference != null) {
+				max = Math.max(max, reference.ParagraphIndex);
+				myReferencedTrees[index] = tree;
+				myMaxParagraphIndices[index] = max;
+				++index;
+			}
+		}
+	}
+
+	/**
+	 * @return the last item before the first one that refers beyond
+	 * the paragraph, or null if there is no such item
+	 */
+	public TOCTree getElement(int paragraphIndex) {
+		// first item with a reference after the paragraph
+		int low = 0;
+		int high = myMaxParagraphIndices.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (myMaxParagraphIndices[middle] <= paragraphIndex) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low > 0 ? myReferencedTrees[low - 1] : null;
+	}
+
+	/**
+	 * @return number of items of level <= maxLevel; levels above 9 are not counted
+	 */
+	public int getSize(int maxLevel) {
+		if (maxLevel < 0) {
+			return 0;
+		}
+		return myLevelSizes[Math.min(maxLevel, MAX_COUNTED_LEVEL - 1)];
+	}
+
+	/**
+	 * @return the same items as TOCTree.allSubtrees(maxLevel)
+	 */
+	public List<TOCTree> getSubtrees(int maxLevel) {
+		final ArrayList<TOCTree> subtrees = new ArrayList<TOCTree>();
+		for (int i = 0; i < myTrees.length; ++i) {
+			if (i == 0 || myTrees[i].Level <= maxLevel) {
+				subtrees.add(myTrees[i]);
+			}
+		}
+		return subtrees;
+	}
+}
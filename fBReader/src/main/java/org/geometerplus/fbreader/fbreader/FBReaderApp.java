@@ -29,7 +29,10 @@ import org.geometerplus.zlibrary.core.drm.EncryptionMethod;
 import org.geometerplus.zlibrary.core.util.*;
 
 import org.geometerplus.zlibrary.text.hyphenation.ZLTextHyphenator;
+import org.geometerplus.zlibrary.text.model.CachedCharStorage;
+import org.geometerplus.zlibrary.text.model.CharBlockCache;
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
+import org.geometerplus.zlibrary.text.model.ZLTextSearchIndex;
 import org.geometerplus.zlibrary.text.view.*;
 
 import org.geometerplus.fbreader.book.*;
@@ -470,6 +473,8 @@ public final class FBReaderApp extends ZLApplication {
         clearTextCaches();
         Model = null;
         ExternalBook = null;
+        CharBlockCache.Instance().evictAll();
+        ZLTextSearchIndex.cancel();
         System.gc();
         System.gc();
 
@@ -499,10 +504,14 @@ public final class FBReaderApp extends ZLApplication {
         }
 
         try {
+            CachedCharStorage.setMemoryMappingEnabled(MiscOptions.MemoryMappedTextCache.getValue());
             Model = BookModel.createModel(book, plugin);
             Collection.saveBook(book);
             ZLTextHyphenator.Instance().load(book.getLanguage());
             BookTextView.setModel(Model.getTextModel());
+            if (MiscOptions.TextSearchIndex.getValue()) {
+                Model.prepareSearchIndex();
+            }
             gotoStoredPosition();
             setBookMarkHighlighting(BookTextView, null);
             setBookNoteHighlighting(BookTextView, null);
@@ -711,18 +720,7 @@ public final class FBReaderApp extends ZLApplication {
         if (cursor.isEndOfParagraph()) {
             ++index;
         }
-        TOCTree treeToSelect = null;
-        for (TOCTree tree : Model.TOCTree) {
-            final TOCTree.Reference reference = tree.getReference();
-            if (reference == null) {
-                continue;
-            }
-            if (reference.ParagraphIndex > index) {
-                break;
-            }
-            treeToSelect = tree;
-        }
-        return treeToSelect;
+        return Model.getTOCIndex().getElement(index);
     }
 
     public void onBookUpdated(Book book) {
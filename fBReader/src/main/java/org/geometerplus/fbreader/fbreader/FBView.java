@@ -21,6 +21,7 @@ package org.geometerplus.fbreader.fbreader;
 
 import org.geometerplus.fbreader.bookmodel.BookModel;
 import org.geometerplus.fbreader.bookmodel.FBHyperlinkType;
+import org.geometerplus.fbreader.bookmodel.TOCIndex;
 import org.geometerplus.fbreader.bookmodel.TOCTree;
 import org.geometerplus.fbreader.fbreader.options.ColorProfile;
 import org.geometerplus.fbreader.fbreader.options.FooterOptions;
@@ -104,13 +105,16 @@ public final class FBView extends ZLTextView {
     }
 
     @Override
-    public synchronized void onScrollingFinished(PageIndex pageIndex) {
+    public void onScrollingFinished(PageIndex pageIndex) {
         super.onScrollingFinished(pageIndex);
         if (myReader.PageTurningOptions.Animation.getValue() == Animation.previewNone) {
             // 恢复原来的动画
             myReader.PageTurningOptions.Animation.setValue(Animation.previewShift);
         }
-        myReader.storePosition();
+        // 页面切换在视图锁内完成后再保存位置，切换本身不与后台分页抢锁
+        synchronized (this) {
+            myReader.storePosition();
+        }
     }
 
     @Override
@@ -118,6 +122,12 @@ public final class FBView extends ZLTextView {
         return myViewOptions.ScrollbarType.getValue();
     }
 
+    @Override
+    protected String getLayoutCacheId() {
+        final BookModel model = myReader.Model;
+        return model != null ? model.getCacheKey() : null;
+    }
+
     @Override
     protected String getPageProgress() {
         StringBuilder info = new StringBuilder();
@@ -147,17 +157,7 @@ public final class FBView extends ZLTextView {
         if (cursor.isEndOfParagraph()) {
             ++index;
         }
-        TOCTree treeToSelect = null;
-        for (TOCTree tree : myReader.Model.TOCTree) {
-            final TOCTree.Reference reference = tree.getReference();
-            if (reference == null) {
-                continue;
-            }
-            if (reference.ParagraphIndex > index) {
-                break;
-            }
-            treeToSelect = tree;
-        }
+        final TOCTree treeToSelect = myReader.Model.getTOCIndex().getElement(index);
         return treeToSelect == null ? "" : treeToSelect.getText();
     }
 
@@ -739,26 +739,16 @@ public final class FBView extends ZLTextView {
             if (toc == null) {
                 return;
             }
+            final TOCIndex index = model.getTOCIndex();
             int maxLevel = Integer.MAX_VALUE;
             if (toc.getSize() >= maxNumber) {
-                final int[] sizes = new int[10];
-                for (TOCTree tocItem : toc) {
-                    if (tocItem.Level < 10) {
-                        ++sizes[tocItem.Level];
-                    }
-                }
-                for (int i = 1; i < sizes.length; ++i) {
-                    sizes[i] += sizes[i - 1];
-                }
-                for (maxLevel = sizes.length - 1; maxLevel >= 0; --maxLevel) {
-                    if (sizes[maxLevel] < maxNumber) {
+                for (maxLevel = 9; maxLevel >= 0; --maxLevel) {
+                    if (index.getSize(maxLevel) < maxNumber) {
                         break;
                     }
                 }
             }
-            for (TOCTree tocItem : toc.allSubtrees(maxLevel)) {
-                myTOCMarks.add(tocItem);
-            }
+            myTOCMarks.addAll(index.getSubtrees(maxLevel));
         }
 
         protected String buildInfoString(PagePosition pagePosition, String separator) {
@@ -51,6 +51,9 @@ public class MiscOptions {
     public final ZLEnumOption<FootnoteToastEnum> ShowFootnoteToast;
     public final ZLEnumOption<DurationEnum> FootnoteToastDuration;
 
+    public final ZLBooleanOption MemoryMappedTextCache;
+    public final ZLBooleanOption TextSearchIndex;
+
     public MiscOptions() {
         AllowScreenBrightnessAdjustment =
                 new ZLBooleanOption("LookNFeel", "AllowScreenBrightnessAdjustment", false);
@@ -71,5 +74,10 @@ public class MiscOptions {
                 new ZLEnumOption<>("Options", "ShowFootnoteToast", FootnoteToastEnum.footnotesAndSuperscripts);
         FootnoteToastDuration =
                 new ZLEnumOption<>("Options", "FootnoteToastDuration", DurationEnum.duration5);
+
+        MemoryMappedTextCache =
+                new ZLBooleanOption("Options", "MemoryMappedTextCache", true);
+        TextSearchIndex =
+                new ZLBooleanOption("TextSearch", "Index", true);
     }
 }
\ No newline at end of file
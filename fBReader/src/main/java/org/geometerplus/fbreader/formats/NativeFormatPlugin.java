@@ -31,13 +31,21 @@ import org.geometerplus.zlibrary.text.model.CachedCharStorageException;
 
 import org.geometerplus.fbreader.book.AbstractBook;
 import org.geometerplus.fbreader.book.BookUtil;
+import org.geometerplus.fbreader.book.UID;
 import org.geometerplus.fbreader.bookmodel.BookModel;
+import org.geometerplus.fbreader.bookmodel.BookModelCache;
 import org.geometerplus.fbreader.formats.fb2.FB2NativePlugin;
 import org.geometerplus.fbreader.formats.oeb.OEBNativePlugin;
 
 public class NativeFormatPlugin extends BuiltinFormatPlugin {
 	private static final Object ourNativeLock = new Object();
 
+	// increase when the native model format changes
+	private static final int MODEL_CACHE_VERSION = 1;
+	private static final String MODEL_CACHE_HASH_ALGORITHM = "SHA-256";
+	private static final long MODEL_CACHE_MAX_SIZE = 128L * 1024 * 1024;
+	private static final int MODEL_CACHE_MAX_ENTRIES = 16;
+
 	public static NativeFormatPlugin create(SystemInfo systemInfo, String fileType) {
 		if ("fb2".equals(fileType)) {
 			return new FB2NativePlugin(systemInfo);
@@ -105,13 +113,27 @@ public class NativeFormatPlugin extends BuiltinFormatPlugin {
 
 	@Override
 	synchronized public void readModel(BookModel model) throws BookReadingException {
+		final BookModelCache cache = modelCache();
+		final String cacheKey = modelCacheKey(model.Book);
+		if (cacheKey != null && cache.restore(model, cacheKey)) {
+			model.setCacheKey(cacheKey);
+			model.setSearchIndexFile(cache.searchIndexFile(cacheKey));
+			return;
+		}
+
 		final int code;
-		final String tempDirectory = SystemInfo.tempDirectory();
+		final String tempDirectory = cacheKey != null
+			? cache.prepareDirectory(cacheKey) : SystemInfo.tempDirectory();
 		synchronized (ourNativeLock) {
 			code = readModelNative(model, tempDirectory);
 		}
 		switch (code) {
 			case 0:
+				if (cacheKey != null) {
+					cache.store(model, cacheKey);
+					model.setCacheKey(cacheKey);
+					model.setSearchIndexFile(cache.searchIndexFile(cacheKey));
+				}
 				return;
 			case 3:
 				throw new CachedCharStorageException(
@@ -128,6 +150,39 @@ public class NativeFormatPlugin extends BuiltinFormatPlugin {
 
 	private native int readModelNative(BookModel model, String cacheDir);
 
+	private BookModelCache modelCache() {
+		return new BookModelCache(
+			SystemInfo.tempDirectory() + "/models", MODEL_CACHE_MAX_SIZE, MODEL_CACHE_MAX_ENTRIES
+		);
+	}
+
+	/**
+	 * @return cache key built from the book content hash, the parsing
+	 * parameters and the plugin version, or null if the book must not
+	 * be cached
+	 */
+	private String modelCacheKey(AbstractBook book) {
+		if (!readEncryptionInfos(book).isEmpty()) {
+			return null;
+		}
+		UID hash = null;
+		for (UID uid : book.uids()) {
+			if (MODEL_CACHE_HASH_ALGORITHM.equals(uid.Type)) {
+				hash = uid;
+				break;
+			}
+		}
+		if (hash == null) {
+			hash = BookUtil.createUid(book, MODEL_CACHE_HASH_ALGORITHM);
+		}
+		if (hash == null) {
+			return null;
+		}
+		final String parameters = book.getEncodingNoDetection() + "\n" + book.getLanguage();
+		return supportedFileType() + "-" + MODEL_CACHE_VERSION + "-" + hash.Id
+			+ "-" + Integer.toHexString(parameters.hashCode());
+	}
+
 	@Override
 	public final ZLFileImageProxy readCover(ZLFile file) {
 		return new ZLFileImageProxy(file) {
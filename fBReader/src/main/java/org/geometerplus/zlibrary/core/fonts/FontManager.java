@@ -36,6 +36,10 @@ public class FontManager {
 		return myFamilyLists.size() - 1;
 	}
 
+	public synchronized List<List<String>> familyLists() {
+		return new ArrayList<List<String>>(myFamilyLists);
+	}
+
 	public synchronized List<FontEntry> getFamilyEntries(int index) {
 		try {
 			final List<String> families = myFamilyLists.get(index);
@@ -19,24 +19,67 @@
 
 package org.geometerplus.zlibrary.core.util;
 
+import java.util.Arrays;
+
 public class ZLSearchPattern {
 	final boolean IgnoreCase;
-	final char[] LowerCasePattern;
-	final char[] UpperCasePattern;
+	final boolean IgnoreAccents;
+	final boolean WholeWord;
+	// pattern chars mapped by ZLSearchUtil.normalize, ignorable chars removed
+	final char[] Pattern;
+	// Horspool shifts indexed by the low byte of a normalized text char
+	final int[] Shifts;
+
+	private final String myText;
 
 	public ZLSearchPattern(String pattern, boolean ignoreCase) {
-		pattern = pattern.replace("\u200b", "");
+		this(pattern, ignoreCase, false, false);
+	}
+
+	public ZLSearchPattern(String pattern, boolean ignoreCase, boolean wholeWord, boolean ignoreAccents) {
+		myText = pattern.replace("\u200b", "");
 		IgnoreCase = ignoreCase;
-		if (IgnoreCase) {
-			LowerCasePattern = pattern.toLowerCase().toCharArray();
-			UpperCasePattern = pattern.toUpperCase().toCharArray();
-		} else {
-			LowerCasePattern = pattern.toCharArray();
-			UpperCasePattern = null;
+		IgnoreAccents = ignoreAccents;
+		WholeWord = wholeWord;
+
+		final char[] chars = new char[myText.length()];
+		int length = 0;
+		for (int i = 0; i < chars.length; ++i) {
+			final char ch = myText.charAt(i);
+			if (!ZLSearchUtil.isIgnorable(ch, ignoreAccents)) {
+				chars[length++] = ZLSearchUtil.normalize(ch, ignoreCase, ignoreAccents);
+			}
+		}
+		Pattern = length == chars.length ? chars : Arrays.copyOf(chars, length);
+
+		// a shared low byte makes the shift smaller, never larger, so collisions are safe
+		Shifts = new int[256];
+		Arrays.fill(Shifts, Math.max(length, 1));
+		for (int i = 0; i < length - 1; ++i) {
+			Shifts[Pattern[i] & 0xFF] = length - 1 - i;
 		}
 	}
 
 	public int getLength() {
-		return LowerCasePattern.length;
+		return Pattern.length;
+	}
+
+	/**
+	 * @return the pattern text without zero-width spaces
+	 */
+	public String getText() {
+		return myText;
+	}
+
+	public boolean ignoresCase() {
+		return IgnoreCase;
+	}
+
+	public boolean ignoresAccents() {
+		return IgnoreAccents;
+	}
+
+	public boolean isWholeWord() {
+		return WholeWord;
 	}
 }
@@ -19,13 +19,18 @@
 
 package org.geometerplus.zlibrary.core.util;
 
+import java.text.Normalizer;
+
 public abstract class ZLSearchUtil {
 	private ZLSearchUtil() {
 	}
 
 	public static final class Result {
-		public final int Start;
-		public final int Length;
+		public int Start;
+		public int Length;
+
+		public Result() {
+		}
 
 		Result(int start, int length) {
 			Start = start;
@@ -33,72 +38,162 @@ public abstract class ZLSearchUtil {
 		}
 	}
 
+	private static final class CaseTable {
+		// upper-then-lower folding: 'I', 'i', '\u0130' and '\u0131' all fold to 'i'
+		static final char[] Table = new char[0x10000];
+
+		static {
+			for (int ch = 0; ch < Table.length; ++ch) {
+				Table[ch] = Character.toLowerCase(Character.toUpperCase((char)ch));
+			}
+		}
+	}
+
+	private static final class AccentTable {
+		// base char of a precomposed accented char; 0 for combining marks
+		static final char[] Table = new char[0x10000];
+
+		static {
+			for (int ch = 0; ch < Table.length; ++ch) {
+				final char c = (char)ch;
+				final int type = Character.getType(c);
+				if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK) {
+					Table[ch] = 0;
+				} else if (ch < 0xC0 || type == Character.SURROGATE || type == Character.UNASSIGNED) {
+					Table[ch] = c;
+				} else {
+					final String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+					Table[ch] = isAccented(decomposed) ? decomposed.charAt(0) : c;
+				}
+			}
+		}
+
+		// a base char followed by combining marks only; e.g., a Hangul syllable
+		// is decomposed to jamo, and is not an accented form of its first one
+		private static boolean isAccented(String decomposed) {
+			if (decomposed.length() < 2) {
+				return false;
+			}
+			for (int i = 1; i < decomposed.length(); ++i) {
+				if (Character.getType(decomposed.charAt(i)) != Character.NON_SPACING_MARK) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	public static char foldCase(char ch) {
+		return CaseTable.Table[ch];
+	}
+
+	/**
+	 * @return true for chars that are skipped in both the text and the pattern:
+	 * zero-width spaces, and combining marks in accent-insensitive mode
+	 */
+	public static boolean isIgnorable(char ch, boolean ignoreAccents) {
+		return ch == '\u200b' || (ignoreAccents && AccentTable.Table[ch] == 0);
+	}
+
+	public static char normalize(char ch, boolean ignoreCase, boolean ignoreAccents) {
+		if (ignoreAccents) {
+			ch = AccentTable.Table[ch];
+		}
+		return ignoreCase ? CaseTable.Table[ch] : ch;
+	}
+
 	public static Result find(char[] text, int offset, int length, final ZLSearchPattern pattern) {
 		return find(text, offset, length, pattern, 0);
 	}
 
 	public static Result find(char[] text, int offset, int length, final ZLSearchPattern pattern, int pos) {
+		final Result result = new Result();
+		return find(text, offset, length, pattern, pos, result) ? result : null;
+	}
+
+	/**
+	 * Boyer-Moore-Horspool search that skips ignorable chars in the text.
+	 * A shift counts text chars, and ignorable chars only make the real
+	 * distance to the next candidate longer, so no match is skipped.
+	 *
+	 * @param result receives the match start (relative to offset) and its length in the text
+	 * @return true if a match starting at offset + pos or later is found
+	 */
+	public static boolean find(char[] text, int offset, int length, final ZLSearchPattern pattern, int pos, Result result) {
 		if (pos < 0) {
 			pos = 0;
 		}
-		final char[] lower = pattern.LowerCasePattern;
-		final int patternLength = lower.length;
+		final char[] p = pattern.Pattern;
+		final int patternLength = p.length;
+		if (patternLength == 0) {
+			return false;
+		}
+		final int[] shifts = pattern.Shifts;
+		final boolean ignoreCase = pattern.IgnoreCase;
+		final boolean ignoreAccents = pattern.IgnoreAccents;
+		final char[] caseTable = ignoreCase ? CaseTable.Table : null;
+		final char[] accentTable = ignoreAccents ? AccentTable.Table : null;
+		final char last = p[patternLength - 1];
+		final int start = offset + pos;
 		final int end = offset + length;
-		final int lastStart = end - patternLength;
-		if (pattern.IgnoreCase) {
-			final char[] upper = pattern.UpperCasePattern;
-			final char firstCharLower = lower[0];
-			final char firstCharUpper = upper[0];
-			for (int i = offset + pos; i <= lastStart; ++i) {
-				final char current = text[i];
-				if (current == firstCharLower || current == firstCharUpper) {
-					int j = 1;
-					int k = i + 1;
-					for (; j < patternLength; ++k) {
-						final char symbol = text[k];
-						if (symbol == '\u200b') {
-							if (patternLength - j > end - k) {
-								break;
-							} else {
-								continue;
-							}
-						}
-						if (lower[j] != symbol && upper[j] != symbol) {
-							break;
-						}
-						++j;
+
+		for (int i = start + patternLength - 1; i < end; ) {
+			char ch = text[i];
+			if (isIgnorable(ch, ignoreAccents)) {
+				// an ignorable char can be inside a match that ends anywhere after it
+				++i;
+				continue;
+			}
+			if (accentTable != null) {
+				ch = accentTable[ch];
+			}
+			if (caseTable != null) {
+				ch = caseTable[ch];
+			}
+			if (ch == last) {
+				int j = patternLength - 2;
+				int k = i - 1;
+				for (; j >= 0 && k >= start; --k) {
+					final char symbol = text[k];
+					if (isIgnorable(symbol, ignoreAccents)) {
+						continue;
 					}
-					if (j == patternLength) {
-						return new Result(i - offset, k - i);
+					if (normalize(symbol, ignoreCase, ignoreAccents) != p[j]) {
+						break;
 					}
+					--j;
 				}
-			}
-		} else {
-			final char firstChar = lower[0];
-			for (int i = offset + pos; i <= lastStart; i++) {
-				if (text[i] == firstChar) {
-					int j = 1;
-					int k = i + 1;
-					for (; j < patternLength; ++k) {
-						final char symbol = text[k];
-						if (symbol == '\u200b') {
-							if (patternLength - j > end - k) {
-								break;
-							} else {
-								continue;
-							}
+				if (j < 0) {
+					final int matchStart = k + 1;
+					int matchEnd = i + 1;
+					if (ignoreAccents) {
+						// combining marks after the last char belong to the match
+						while (matchEnd < end && isIgnorable(text[matchEnd], true) && text[matchEnd] != '\u200b') {
+							++matchEnd;
 						}
-						if (lower[j] != text[k]) {
-							break;
-						}
-						++j;
 					}
-					if (j >= patternLength) {
-						return new Result(i - offset, k - i);
+					if (!pattern.WholeWord ||
+						(isWordBoundary(text, offset, matchStart - 1, -1, ignoreAccents) &&
+						 isWordBoundary(text, end - 1, matchEnd, 1, ignoreAccents))) {
+						result.Start = matchStart - offset;
+						result.Length = matchEnd - matchStart;
+						return true;
 					}
 				}
 			}
+			i += shifts[ch & 0xFF];
+		}
+		return false;
+	}
+
+	// true if the first not ignorable char from index in the direction is not a letter or digit
+	private static boolean isWordBoundary(char[] text, int limit, int index, int direction, boolean ignoreAccents) {
+		for (; direction < 0 ? index >= limit : index <= limit; index += direction) {
+			final char ch = text[index];
+			if (!isIgnorable(ch, ignoreAccents)) {
+				return !Character.isLetterOrDigit(ch);
+			}
 		}
-		return null;
+		return true;
 	}
 }
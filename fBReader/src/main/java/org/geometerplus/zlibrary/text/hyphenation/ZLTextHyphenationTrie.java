@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.hyphenation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * TeX hyphenation patterns packed into a trie of pattern letters.
+ *
+ * Edges of node n are myEdgeChars/myEdgeTargets[myFirstEdge[n] .. myFirstEdge[n + 1]),
+ * sorted by char; node 0 is the root. If a pattern ends at node n, its values
+ * start at myValues[myValueOffsets[n]]; a pattern of k letters has k + 1 values.
+ * A trie is immutable, so it is shared by all the threads without locking.
+ */
+final class ZLTextHyphenationTrie {
+	private static final int FORMAT_VERSION = 1;
+
+	private final int[] myFirstEdge;
+	private final char[] myEdgeChars;
+	private final int[] myEdgeTargets;
+	private final int[] myValueOffsets;
+	private final byte[] myValues;
+
+	private ZLTextHyphenationTrie(int[] firstEdge, char[] edgeChars, int[] edgeTargets, int[] valueOffsets, byte[] values) {
+		myFirstEdge = firstEdge;
+		myEdgeChars = edgeChars;
+		myEdgeTargets = edgeTargets;
+		myValueOffsets = valueOffsets;
+		myValues = values;
+	}
+
+	boolean isEmpty() {
+		return myValues.length == 0;
+	}
+
+	private int child(int node, char ch) {
+		final char[] chars = myEdgeChars;
+		int low = myFirstEdge[node];
+		int high = myFirstEdge[node + 1] - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final char c = chars[middle];
+			if (c < ch) {
+				low = middle + 1;
+			} else if (c > ch) {
+				high = middle - 1;
+			} else {
+				return myEdgeTargets[middle];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Applies all the patterns found in the string; each suffix is walked once.
+	 *
+	 * @param values maximal pattern values between the chars; at least length + 1
+	 * items, cleared by the caller
+	 */
+	void apply(char[] string, int length, byte[] values) {
+		final int[] valueOffsets = myValueOffsets;
+		final byte[] patternValues = myValues;
+		for (int offset = 0; offset < length - 1; ++offset) {
+			int node = 0;
+			for (int j = offset; j < length; ++j) {
+				node = child(node, string[j]);
+				if (node < 0) {
+					break;
+				}
+				final int valueOffset = valueOffsets[node];
+				if (valueOffset >= 0) {
+					for (int i = offset, k = valueOffset; i <= j + 1; ++i, ++k) {
+						if (values[i] < patternValues[k]) {
+							values[i] = patternValues[k];
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a trie written by write(); the file is mapped into memory,
+	 * so there is no parsing.
+	 *
+	 * @return the trie, or null if the file does not exist, is damaged or
+	 * was compiled from another source
+	 */
+	static ZLTextHyphenationTrie read(File file, long sourceSize) {
+		if (!file.exists()) {
+			return null;
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != FORMAT_VERSION || buffer.getLong() != sourceSize) {
+				return null;
+			}
+			final int nodesNumber = buffer.getInt();
+			final int edgesNumber = buffer.getInt();
+			final int valuesNumber = buffer.getInt();
+
+			final int[] firstEdge = new int[nodesNumber + 1];
+			buffer.asIntBuffer().get(firstEdge);
+			buffer.position(buffer.position() + 4 * firstEdge.length);
+			final char[] edgeChars = new char[edgesNumber];
+			buffer.asCharBuffer().get(edgeChars);
+			buffer.position(buffer.position() + 2 * edgeChars.length);
+			final int[] edgeTargets = new int[edgesNumber];
+			buffer.asIntBuffer().get(edgeTargets);
+			buffer.position(buffer.position() + 4 * edgeTargets.length);
+			final int[] valueOffsets = new int[nodesNumber];
+			buffer.asIntBuffer().get(valueOffsets);
+			buffer.position(buffer.position() + 4 * valueOffsets.length);
+			final byte[] values = new byte[valuesNumber];
+			buffer.get(values);
+
+			return new ZLTextHyphenationTrie(firstEdge, edgeChars, edgeTargets, valueOffsets, values);
+		} catch (Exception e) {
+			// IOException or BufferUnderflowException for a truncated file
+			file.delete();
+			return null;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	void write(File file, long sourceSize) {
+		file.getParentFile().mkdirs();
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			stream.writeInt(FORMAT_VERSION);
+			stream.writeLong(sourceSize);
+			stream.writeInt(myValueOffsets.length);
+			stream.writeInt(myEdgeChars.length);
+			stream.writeInt(myValues.length);
+			for (int i : myFirstEdge) {
+				stream.writeInt(i);
+			}
+			for (char ch : myEdgeChars) {
+				stream.writeChar(ch);
+			}
+			for (int i : myEdgeTargets) {
+				stream.writeInt(i);
+			}
+			for (int i : myValueOffsets) {
+				stream.writeInt(i);
+			}
+			stream.write(myValues);
+			stream.close();
+			stream = null;
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	static final class Builder {
+		private static final class Node {
+			final TreeMap<Character,Node> Children = new TreeMap<Character,Node>();
+			byte[] Values;
+		}
+
+		private final Node myRoot = new Node();
+
+		/**
+		 * @param pattern TeX pattern, letters with digits between them,
+		 * e.g., "a1b"
+		 */
+		void addPattern(char[] pattern, int offset, int length) {
+			int letters = 0;
+			for (int i = offset; i < offset + length; ++i) {
+				final char ch = pattern[i];
+				if (ch < '0' || ch > '9') {
+					++letters;
+				}
+			}
+			final byte[] values = new byte[letters + 1];
+			Node node = myRoot;
+			for (int i = offset, k = 0; i < offset + length; ++i) {
+				final char ch = pattern[i];
+				if (ch >= '0' && ch <= '9') {
+					values[k] = (byte)(ch - '0');
+				} else {
+					Node child = node.Children.get(ch);
+					if (child == null) {
+						child = new Node();
+						node.Children.put(ch, child);
+					}
+					node = child;
+					++k;
+				}
+			}
+			node.Values = values;
+		}
+
+		ZLTextHyphenationTrie build() {
+			// nodes are numbered in breadth-first order
+			final ArrayList<Node> nodes = new ArrayList<Node>();
+			nodes.add(myRoot);
+			int edgesNumber = 0;
+			int valuesNumber = 0;
+			for (int i = 0; i < nodes.size(); ++i) {
+				final Node node = nodes.get(i);
+				nodes.addAll(node.Children.values());
+				edgesNumber += node.Children.size();
+				if (node.Values != null) {
+					valuesNumber += node.Values.length;
+				}
+			}
+
+			final int[] firstEdge = new int[nodes.size() + 1];
+			final char[] edgeChars = new char[edgesNumber];
+			final int[] edgeTargets = new int[edgesNumber];
+			final int[] valueOffsets = new int[nodes.size()];
+			final byte[] values = new byte[valuesNumber];
+			int edge = 0;
+			int value = 0;
+			// children of the nodes follow each other in the same order
+			int nextChild = 1;
+			for (int i = 0; i < nodes.size(); ++i) {
+				final Node node = nodes.get(i);
+				firstEdge[i] = edge;
+				for (Map.Entry<Character,Node> entry : node.Children.entrySet()) {
+					edgeChars[edge] = entry.getKey();
+					edgeTargets[edge] = nextChild++;
+					++edge;
+				}
+				if (node.Values != null) {
+					valueOffsets[i] = value;
+					System.arraycopy(node.Values, 0, values, value, node.Values.length);
+					value += node.Values.length;
+				} else {
+					valueOffsets[i] = -1;
+				}
+			}
+			firstEdge[nodes.size()] = edge;
+
+			return new ZLTextHyphenationTrie(firstEdge, edgeChars, edgeTargets, valueOffsets, values);
+		}
+	}
+}
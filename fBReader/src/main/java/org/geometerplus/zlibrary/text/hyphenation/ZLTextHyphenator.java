@@ -19,55 +19,223 @@
 
 package org.geometerplus.zlibrary.text.hyphenation;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.geometerplus.zlibrary.text.view.ZLTextWord;
 
 public abstract class ZLTextHyphenator {
 	private static ZLTextHyphenator ourInstance;
 
-	public static ZLTextHyphenator Instance() {
+	public static synchronized ZLTextHyphenator Instance() {
 		if (ourInstance == null) {
 			ourInstance = new ZLTextTeXHyphenator();
 		}
 		return ourInstance;
 	}
 
-	public static void deleteInstance() {
+	public static synchronized void deleteInstance() {
 		if (ourInstance != null) {
 			ourInstance.unload();
 			ourInstance = null;
 		}
 	}
 
+	private static final int MAX_CACHED_WORDS = 8192;
+	// longer words are rare and not worth keeping
+	private static final int MAX_CACHED_WORD_LENGTH = 48;
+
+	private static final class Key {
+		private char[] myData;
+		private int myLength;
+		private int myHash;
+
+		Key set(char[] data, int length) {
+			myData = data;
+			myLength = length;
+			int hash = length;
+			for (int i = length - 1; i >= 0; --i) {
+				hash = 31 * hash + data[i];
+			}
+			myHash = hash;
+			return this;
+		}
+
+		Key copy() {
+			final Key key = new Key();
+			key.myData = new char[myLength];
+			System.arraycopy(myData, 0, key.myData, 0, myLength);
+			key.myLength = myLength;
+			key.myHash = myHash;
+			return key;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			if (myHash != key.myHash || myLength != key.myLength) {
+				return false;
+			}
+			for (int i = 0; i < myLength; ++i) {
+				if (myData[i] != key.myData[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return myHash;
+		}
+	}
+
+	// results for the patterns of the loaded language; cleared on (un)loading
+	private final LinkedHashMap<Key,ZLTextHyphenationInfo> myCache =
+		new LinkedHashMap<Key,ZLTextHyphenationInfo>(256, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,ZLTextHyphenationInfo> eldest) {
+				return size() > MAX_CACHED_WORDS;
+			}
+		};
+	private final Key myProbe = new Key();
+	// guarded by myCache; a result computed with old patterns is not stored
+	private int myCacheGeneration;
+	private final AtomicLong myHitCount = new AtomicLong();
+	private final AtomicLong myMissCount = new AtomicLong();
+
 	protected ZLTextHyphenator() {
 	}
 
+	/**
+	 * Must be called by implementations when the patterns change.
+	 */
+	protected final void clearCache() {
+		synchronized (myCache) {
+			myCache.clear();
+			++myCacheGeneration;
+		}
+	}
+
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * @return share of words found in the result cache, from 0 to 1
+	 */
+	public float getHitRate() {
+		final long hits = myHitCount.get();
+		final long total = hits + myMissCount.get();
+		return total > 0 ? ((float)hits) / total : 0;
+	}
+
 	public abstract List<String> languageCodes();
 	public abstract void load(final String languageCode);
 	public abstract void unload();
 
+	private static final class Buffers {
+		boolean[] IsLetter = new boolean[32];
+		char[] Pattern = new char[34];
+		char[] Key = new char[32];
+
+		void ensureCapacity(int length) {
+			if (IsLetter.length < length) {
+				IsLetter = new boolean[length];
+				Pattern = new char[length + 2];
+				Key = new char[length];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Buffers> ourBuffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	/**
+	 * @return hyphenation positions of the word; results are cached, so
+	 * the returned object is shared and must not be changed
+	 */
 	public ZLTextHyphenationInfo getInfo(final ZLTextWord word) {
 		final int len = word.Length;
-		final boolean[] isLetter = new boolean[len];
-		final char[] pattern = new char[len + 2];
-		final char[] data = word.Data;
-		pattern[0] = ' ';
+		if (len > MAX_CACHED_WORD_LENGTH) {
+			myMissCount.incrementAndGet();
+			final ZLTextHyphenationInfo info = new ZLTextHyphenationInfo(len + 2);
+			getMask(word.Data, word.Offset, len, info.Mask);
+			return info;
+		}
+
+		// the mask does not depend on the case of letters
+		final Buffers buffers = ourBuffers.get();
+		buffers.ensureCapacity(len);
+		final char[] key = buffers.Key;
 		for (int i = 0, j = word.Offset; i < len; ++i, ++j) {
+			key[i] = Character.toLowerCase(word.Data[j]);
+		}
+		ZLTextHyphenationInfo info;
+		final int generation;
+		synchronized (myCache) {
+			info = myCache.get(myProbe.set(key, len));
+			generation = myCacheGeneration;
+		}
+		if (info != null) {
+			myHitCount.incrementAndGet();
+			return info;
+		}
+		myMissCount.incrementAndGet();
+
+		info = new ZLTextHyphenationInfo(len + 2);
+		getMask(word.Data, word.Offset, len, info.Mask);
+		synchronized (myCache) {
+			if (generation == myCacheGeneration) {
+				myCache.put(myProbe.set(key, len).copy(), info);
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Finds hyphenation positions in the word; does not allocate memory
+	 * except for growing per-thread buffers on long words.
+	 *
+	 * @param mask at least length + 1 items; mask[i] is set to true if
+	 * the word can be broken before char i
+	 */
+	public void getMask(char[] data, int offset, int len, boolean[] mask) {
+		final Buffers buffers = ourBuffers.get();
+		buffers.ensureCapacity(len);
+		final boolean[] isLetter = buffers.IsLetter;
+		final char[] pattern = buffers.Pattern;
+		pattern[0] = ' ';
+		for (int i = 0, j = offset; i < len; ++i, ++j) {
 			char character = data[j];
 			if (character == '\'' || character == '^' || Character.isLetter(character)) {
 				isLetter[i] = true;
 				pattern[i + 1] = Character.toLowerCase(character);
 			} else {
+				isLetter[i] = false;
 				pattern[i + 1] = ' ';
 			}
 		}
 		pattern[len + 1] = ' ';
 
-		final ZLTextHyphenationInfo info = new ZLTextHyphenationInfo(len + 2);
-		final boolean[] mask = info.Mask;
 		hyphenate(pattern, mask, len + 2);
-		for (int i = 0, j = word.Offset - 1; i <= len; ++i, ++j) {
+		for (int i = 0, j = offset - 1; i <= len; ++i, ++j) {
 			if ((i < 2) || (i > len - 2)) {
 				mask[i] = false;
 			} else {
@@ -92,8 +260,6 @@ public abstract class ZLTextHyphenator {
 				}
 			}
 		}
-
-		return info;
 	}
 
 	protected abstract void hyphenate(char[] stringToHyphenate, boolean[] mask, int length);
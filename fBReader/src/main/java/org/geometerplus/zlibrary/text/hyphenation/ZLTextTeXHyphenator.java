@@ -19,25 +19,28 @@
 
 package org.geometerplus.zlibrary.text.hyphenation;
 
+import java.io.File;
 import java.util.*;
 
+import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.zlibrary.core.language.Language;
 import org.geometerplus.zlibrary.core.language.ZLLanguageUtil;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
 import org.geometerplus.zlibrary.core.filesystem.ZLResourceFile;
 
 final class ZLTextTeXHyphenator extends ZLTextHyphenator {
-	private final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> myPatternTable =
-		new HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern>();
-	private int myMaxPatternLength;
+	private static final ZLTextHyphenationTrie EMPTY_TRIE = new ZLTextHyphenationTrie.Builder().build();
+
+	// replaced as a whole on (un)loading, so hyphenate() needs no locking
+	private volatile ZLTextHyphenationTrie myTrie = EMPTY_TRIE;
 	private String myLanguage;
 
-	void addPattern(ZLTextTeXHyphenationPattern pattern) {
-		myPatternTable.put(pattern, pattern);
-		if (myMaxPatternLength < pattern.length()) {
-			myMaxPatternLength = pattern.length();
+	private static final ThreadLocal<byte[]> ourValues = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[64];
 		}
-	}
+	};
 
 	private List<String> myLanguageCodes;
 	public List<String> languageCodes() {
@@ -58,7 +61,7 @@ final class ZLTextTeXHyphenator extends ZLTextHyphenator {
 		return Collections.unmodifiableList(myLanguageCodes);
 	}
 
-	public void load(String language) {
+	public synchronized void load(String language) {
 		if (language == null || Language.OTHER_CODE.equals(language)) {
 			language = ZLLanguageUtil.defaultLanguageCode();
 		}
@@ -68,43 +71,61 @@ final class ZLTextTeXHyphenator extends ZLTextHyphenator {
 		myLanguage = language;
 		unload();
 
-		if (language != null) {
-			new ZLTextHyphenationReader(this).readQuietly(ZLResourceFile.createResourceFile(
-				"hyphenationPatterns/" + language + ".pattern"
-			));
+		final ZLFile patternFile = ZLResourceFile.createResourceFile(
+			"hyphenationPatterns/" + language + ".pattern"
+		);
+		if (!patternFile.exists()) {
+			return;
+		}
+		final File compiledFile = compiledFile(language);
+		ZLTextHyphenationTrie trie = compiledFile != null
+			? ZLTextHyphenationTrie.read(compiledFile, patternFile.size()) : null;
+		if (trie == null) {
+			final ZLTextHyphenationTrie.Builder builder = new ZLTextHyphenationTrie.Builder();
+			new ZLTextHyphenationReader(builder).readQuietly(patternFile);
+			trie = builder.build();
+			if (compiledFile != null && !trie.isEmpty()) {
+				trie.write(compiledFile, patternFile.size());
+			}
+		}
+		myTrie = trie;
+		clearCache();
+	}
+
+	/**
+	 * @return file for the patterns compiled from the XML resource,
+	 * or null if there is no place to store it
+	 */
+	private static File compiledFile(String language) {
+		final ZLApplication application = ZLApplication.Instance();
+		if (application == null) {
+			return null;
 		}
+		return new File(application.SystemInfo.tempDirectory() + "/hyphenation", language + ".trie");
 	}
 
 	public void unload() {
-		myPatternTable.clear();
-		myMaxPatternLength = 0;
+		myTrie = EMPTY_TRIE;
+		clearCache();
 	}
 
 	public void hyphenate(char[] stringToHyphenate, boolean[] mask, int length) {
-		if (myPatternTable.isEmpty()) {
+		final ZLTextHyphenationTrie trie = myTrie;
+		if (trie.isEmpty()) {
 			for (int i = 0; i < length - 1; i++) {
 				mask[i] = false;
 			}
 			return;
 		}
 
-		byte[] values = new byte[length + 1];
-
-		final HashMap<ZLTextTeXHyphenationPattern,ZLTextTeXHyphenationPattern> table = myPatternTable;
-		ZLTextTeXHyphenationPattern pattern =
-			new ZLTextTeXHyphenationPattern(stringToHyphenate, 0, length, false);
-		for (int offset = 0; offset < length - 1; offset++) {
-			int len = Math.min(length - offset, myMaxPatternLength) + 1;
-			pattern.update(stringToHyphenate, offset, len - 1);
-			while (--len > 0) {
-				pattern.reset(len);
-				ZLTextTeXHyphenationPattern toApply =
-					(ZLTextTeXHyphenationPattern)table.get(pattern);
-				if (toApply != null) {
-					toApply.apply(values, offset);
-				}
-			}
+		byte[] values = ourValues.get();
+		if (values.length < length + 1) {
+			values = new byte[length + 1];
+			ourValues.set(values);
+		} else {
+			Arrays.fill(values, 0, length + 1, (byte)0);
 		}
+		trie.apply(stringToHyphenate, length, values);
 
 		for (int i = 0; i < length - 1; i++) {
 			mask[i] = (values[i + 1] % 2) == 1;
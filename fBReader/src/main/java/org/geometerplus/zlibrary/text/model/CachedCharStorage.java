@@ -21,20 +21,41 @@ package org.geometerplus.zlibrary.text.model;
 
 import java.lang.ref.WeakReference;
 import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 
 public final class CachedCharStorage {
+	private static volatile boolean ourMemoryMappingEnabled = true;
+
+	/**
+	 * Selects the storage mode for storages created after this call.
+	 * In the mapped mode block files are mapped into memory once, and text
+	 * models read entries from the mapping in place, so no heap block is
+	 * allocated for them; block() still returns a heap copy (made without
+	 * charset decoding) to the callers that need an array. The heap mode
+	 * re-reads each block through a UTF-16LE reader.
+	 */
+	public static void setMemoryMappingEnabled(boolean enabled) {
+		ourMemoryMappingEnabled = enabled;
+	}
+
 	protected final ArrayList<WeakReference<char[]>> myArray =
 		new ArrayList<WeakReference<char[]>>();
 
 	private final String myDirectoryName;
 	private final String myFileExtension;
+	private final CharBuffer[] myMappedBlocks;
+	private final CharBlockCache.Key[] myKeys;
 
 	public CachedCharStorage(String directoryName, String fileExtension, int blocksNumber) {
 		myDirectoryName = directoryName + '/';
 		myFileExtension = '.' + fileExtension;
 		myArray.addAll(Collections.nCopies(blocksNumber, new WeakReference<char[]>(null)));
+		myMappedBlocks = ourMemoryMappingEnabled ? new CharBuffer[blocksNumber] : null;
+		myKeys = new CharBlockCache.Key[blocksNumber];
 	}
 
 	private String fileName(int index) {
@@ -68,34 +89,137 @@ public final class CachedCharStorage {
 		return buffer.toString();
 	}
 
+	public boolean isMemoryMapped() {
+		return myMappedBlocks != null;
+	}
+
+	/**
+	 * @return read-only little-endian view of the block file, or null
+	 * if the storage works in the heap mode or the file cannot be mapped
+	 */
+	public synchronized CharBuffer mappedBlock(int index) {
+		if (myMappedBlocks == null || index < 0 || index >= myMappedBlocks.length) {
+			return null;
+		}
+		CharBuffer buffer = myMappedBlocks[index];
+		if (buffer == null) {
+			RandomAccessFile file = null;
+			try {
+				file = new RandomAccessFile(fileName(index), "r");
+				final FileChannel channel = file.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size() & ~1L)
+					.order(ByteOrder.LITTLE_ENDIAN)
+					.asCharBuffer();
+				myMappedBlocks[index] = buffer;
+			} catch (IOException e) {
+				// heap mode is used for this block
+				return null;
+			} finally {
+				if (file != null) {
+					try {
+						file.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+		}
+		return buffer;
+	}
+
+	CharBlockCache.Key key(int index) {
+		synchronized (myKeys) {
+			CharBlockCache.Key key = myKeys[index];
+			if (key == null) {
+				key = new CharBlockCache.Key(this, index);
+				myKeys[index] = key;
+			}
+			return key;
+		}
+	}
+
+	private char[] cachedBlock(int index) {
+		synchronized (myArray) {
+			return myArray.get(index).get();
+		}
+	}
+
 	public char[] block(int index) {
 		if (index < 0 || index >= myArray.size()) {
 			return null;
 		}
-		char[] block = myArray.get(index).get();
+		final CharBlockCache cache = CharBlockCache.Instance();
+		final CharBlockCache.Key key = key(index);
+		char[] block = cache.get(key);
 		if (block == null) {
-			try {
-				File file = new File(fileName(index));
-				int size = (int)file.length();
-				if (size < 0) {
-					throw new CachedCharStorageException(exceptionMessage(index, "size = " + size));
-				}
-				block = new char[size / 2];
-				InputStreamReader reader =
-					new InputStreamReader(
-						new FileInputStream(file),
-						"UTF-16LE"
-					);
-				final int rd = reader.read(block);
-				if (rd != block.length) {
-					throw new CachedCharStorageException(exceptionMessage(index, "; " + rd + " != " + block.length));
+			block = cachedBlock(index);
+			if (block != null) {
+				cache.recordHit();
+			} else {
+				cache.recordMiss();
+				block = readOrCopyBlock(index);
+				synchronized (myArray) {
+					myArray.set(index, new WeakReference<char[]>(block));
 				}
-				reader.close();
-			} catch (IOException e) {
-				throw new CachedCharStorageException(exceptionMessage(index, null), e);
 			}
-			myArray.set(index, new WeakReference<char[]>(block));
+			cache.put(key, block);
 		}
 		return block;
 	}
+
+	/**
+	 * Asynchronously loads the block into the shared block cache.
+	 */
+	public void prefetch(int index) {
+		if (index >= 0 && index < myArray.size()) {
+			CharBlockCache.Instance().prefetch(this, index);
+		}
+	}
+
+	/**
+	 * @return the block, read from the file if it is not reachable
+	 */
+	char[] loadBlock(int index) {
+		char[] block = cachedBlock(index);
+		if (block == null) {
+			block = readOrCopyBlock(index);
+			synchronized (myArray) {
+				myArray.set(index, new WeakReference<char[]>(block));
+			}
+		}
+		return block;
+	}
+
+	private char[] readOrCopyBlock(int index) {
+		final CharBuffer mapped = mappedBlock(index);
+		if (mapped != null) {
+			final char[] block = new char[mapped.capacity()];
+			mapped.duplicate().get(block);
+			return block;
+		}
+		return readBlock(index);
+	}
+
+	private char[] readBlock(int index) {
+		try {
+			File file = new File(fileName(index));
+			int size = (int)file.length();
+			if (size < 0) {
+				throw new CachedCharStorageException(exceptionMessage(index, "size = " + size));
+			}
+			final char[] block = new char[size / 2];
+			InputStreamReader reader =
+				new InputStreamReader(
+					new FileInputStream(file),
+					"UTF-16LE"
+				);
+			final int rd = reader.read(block);
+			if (rd != block.length) {
+				throw new CachedCharStorageException(exceptionMessage(index, "; " + rd + " != " + block.length));
+			}
+			reader.close();
+			return block;
+		} catch (IOException e) {
+			throw new CachedCharStorageException(exceptionMessage(index, null), e);
+		}
+	}
 }
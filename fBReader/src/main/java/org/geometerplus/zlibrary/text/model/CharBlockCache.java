@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Byte-budgeted LRU cache shared by all CachedCharStorage instances.
+ * Blocks evicted from the cache stay weakly reachable from their storage,
+ * so an evicted block is reloaded only after it has been collected.
+ */
+public final class CharBlockCache {
+	private static final CharBlockCache ourInstance = new CharBlockCache();
+
+	public static CharBlockCache Instance() {
+		return ourInstance;
+	}
+
+	static final class Key {
+		final CachedCharStorage Storage;
+		final int Index;
+
+		Key(CachedCharStorage storage, int index) {
+			Storage = storage;
+			Index = index;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			return Storage == key.Storage && Index == key.Index;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(Storage) * 31 + Index;
+		}
+	}
+
+	private static class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private final LinkedHashMap<Key,char[]> myBlocks = new LinkedHashMap<Key,char[]>(16, .75f, true);
+	private final HashSet<Key> myPendingKeys = new HashSet<Key>();
+	// incremented by evictAll(); blocks prefetched before it are not stored
+	private int myGeneration;
+	private final ExecutorService myPrefetchService = Executors.newSingleThreadExecutor(new MinPriorityThreadFactory());
+
+	private long myBudget = 4 * 1024 * 1024;
+	private long mySize;
+
+	private int myHitCount;
+	private int myMissCount;
+	private int myPrefetchCount;
+	private int myEvictionCount;
+
+	private CharBlockCache() {
+	}
+
+	private static long sizeOf(char[] block) {
+		return 2L * block.length;
+	}
+
+	synchronized char[] get(Key key) {
+		final char[] block = myBlocks.get(key);
+		if (block != null) {
+			++myHitCount;
+		}
+		return block;
+	}
+
+	synchronized void put(Key key, char[] block) {
+		final char[] previous = myBlocks.put(key, block);
+		if (previous != null) {
+			mySize -= sizeOf(previous);
+		}
+		mySize += sizeOf(block);
+		trimToSize(myBudget);
+	}
+
+	synchronized void recordHit() {
+		++myHitCount;
+	}
+
+	synchronized void recordMiss() {
+		++myMissCount;
+	}
+
+	void prefetch(final CachedCharStorage storage, final int index) {
+		final Key key = storage.key(index);
+		final int generation;
+		synchronized (this) {
+			if (myBlocks.containsKey(key) || !myPendingKeys.add(key)) {
+				return;
+			}
+			generation = myGeneration;
+		}
+		myPrefetchService.execute(new Runnable() {
+			public void run() {
+				try {
+					synchronized (CharBlockCache.this) {
+						if (generation != myGeneration) {
+							return;
+						}
+					}
+					final char[] block = storage.loadBlock(index);
+					synchronized (CharBlockCache.this) {
+						// the cache was cleared, e.g., for another book:
+						// the block must not keep its storage alive
+						if (generation == myGeneration) {
+							put(key, block);
+							++myPrefetchCount;
+						}
+					}
+				} catch (CachedCharStorageException e) {
+					// the error is reported when the block is requested
+				} finally {
+					synchronized (CharBlockCache.this) {
+						if (generation == myGeneration) {
+							myPendingKeys.remove(key);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	public synchronized void setBudget(long bytes) {
+		myBudget = Math.max(0, bytes);
+		trimToSize(myBudget);
+	}
+
+	public synchronized long budget() {
+		return myBudget;
+	}
+
+	public synchronized long size() {
+		return mySize;
+	}
+
+	public synchronized void trimToSize(long bytes) {
+		for (Iterator<char[]> it = myBlocks.values().iterator(); mySize > bytes && it.hasNext(); ) {
+			mySize -= sizeOf(it.next());
+			it.remove();
+			++myEvictionCount;
+		}
+	}
+
+	/**
+	 * Clears the cache; blocks being prefetched are dropped too.
+	 */
+	public synchronized void evictAll() {
+		++myGeneration;
+		myBlocks.clear();
+		myPendingKeys.clear();
+		mySize = 0;
+	}
+
+	public synchronized int hitCount() {
+		return myHitCount;
+	}
+
+	public synchronized int missCount() {
+		return myMissCount;
+	}
+
+	public synchronized int prefetchCount() {
+		return myPrefetchCount;
+	}
+
+	public synchronized int evictionCount() {
+		return myEvictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		final int accesses = myHitCount + myMissCount;
+		final int hitPercent = accesses != 0 ? (100 * myHitCount / accesses) : 0;
+		return "CharBlockCache[size=" + mySize + ",budget=" + myBudget
+			+ ",hits=" + myHitCount + ",misses=" + myMissCount
+			+ ",prefetches=" + myPrefetchCount + ",evictions=" + myEvictionCount
+			+ ",hitRate=" + hitPercent + "%]";
+	}
+}
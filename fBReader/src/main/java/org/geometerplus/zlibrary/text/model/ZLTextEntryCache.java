@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intern table of decoded entries keyed by their encoded chars (including
+ * the entry type char), so equal entries share one immutable object.
+ * Lookups do not allocate: every iterator probes the table with its own
+ * reusable key, and only a stored key gets a copy of the chars.
+ */
+final class ZLTextEntryCache {
+	// entries of a book are mostly repeated styles; unique ones
+	// (images, hyperlinks) are not worth keeping beyond this limit
+	private static final int MAX_SIZE = 8192;
+
+	static final class Key {
+		private char[] myData;
+		private int myStart;
+		private int myLength;
+		private int myHash;
+
+		Key set(char[] data, int start, int length) {
+			myData = data;
+			myStart = start;
+			myLength = length;
+			int hash = length;
+			for (int i = start + length - 1; i >= start; --i) {
+				hash = 31 * hash + data[i];
+			}
+			myHash = hash;
+			return this;
+		}
+
+		private Key copy() {
+			final Key key = new Key();
+			key.myData = new char[myLength];
+			System.arraycopy(myData, myStart, key.myData, 0, myLength);
+			key.myStart = 0;
+			key.myLength = myLength;
+			key.myHash = myHash;
+			return key;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			if (myHash != key.myHash || myLength != key.myLength) {
+				return false;
+			}
+			for (int i = 0; i < myLength; ++i) {
+				if (myData[myStart + i] != key.myData[key.myStart + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return myHash;
+		}
+	}
+
+	private final ConcurrentHashMap<Key,Object> myEntries = new ConcurrentHashMap<Key,Object>();
+
+	Object get(Key probe) {
+		return myEntries.get(probe);
+	}
+
+	void put(Key probe, Object entry) {
+		if (myEntries.size() < MAX_SIZE) {
+			myEntries.putIfAbsent(probe.copy(), entry);
+		}
+	}
+}
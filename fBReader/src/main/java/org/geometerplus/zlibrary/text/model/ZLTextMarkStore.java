@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.util.*;
+
+/**
+ * Immutable sorted set of text marks kept in parallel int arrays;
+ * marks are ordered by paragraph index, then by offset.
+ */
+public final class ZLTextMarkStore {
+	public static final ZLTextMarkStore EMPTY = new ZLTextMarkStore(new int[0], new int[0], new int[0], 0);
+
+	static final class Builder {
+		private int[] myParagraphs = new int[16];
+		private int[] myOffsets = new int[16];
+		private int[] myLengths = new int[16];
+		private int mySize;
+
+		// marks must be added in text order
+		void add(int paragraphIndex, int offset, int length) {
+			if (mySize == myParagraphs.length) {
+				final int capacity = 2 * mySize;
+				myParagraphs = Arrays.copyOf(myParagraphs, capacity);
+				myOffsets = Arrays.copyOf(myOffsets, capacity);
+				myLengths = Arrays.copyOf(myLengths, capacity);
+			}
+			myParagraphs[mySize] = paragraphIndex;
+			myOffsets[mySize] = offset;
+			myLengths[mySize] = length;
+			++mySize;
+		}
+
+		ZLTextMarkStore build() {
+			return mySize != 0
+				? new ZLTextMarkStore(myParagraphs, myOffsets, myLengths, mySize)
+				: EMPTY;
+		}
+	}
+
+	private final int[] myParagraphs;
+	private final int[] myOffsets;
+	private final int[] myLengths;
+	private final int mySize;
+
+	private ZLTextMarkStore(int[] paragraphs, int[] offsets, int[] lengths, int size) {
+		myParagraphs = paragraphs;
+		myOffsets = offsets;
+		myLengths = lengths;
+		mySize = size;
+	}
+
+	public int size() {
+		return mySize;
+	}
+
+	public boolean isEmpty() {
+		return mySize == 0;
+	}
+
+	public int getParagraphIndex(int index) {
+		return myParagraphs[index];
+	}
+
+	public int getOffset(int index) {
+		return myOffsets[index];
+	}
+
+	public int getLength(int index) {
+		return myLengths[index];
+	}
+
+	public ZLTextMark getMark(int index) {
+		return new ZLTextMark(myParagraphs[index], myOffsets[index], myLengths[index]);
+	}
+
+	/**
+	 * @return index of the first mark that is not less than (paragraphIndex, offset),
+	 * or size() if there is no such mark
+	 */
+	public int lowerBound(int paragraphIndex, int offset) {
+		int low = 0;
+		int high = mySize;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final int p = myParagraphs[middle];
+			if (p < paragraphIndex || (p == paragraphIndex && myOffsets[middle] < offset)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// marks of the paragraph are [paragraphStart(index), paragraphStart(index + 1))
+	public int paragraphStart(int paragraphIndex) {
+		return lowerBound(paragraphIndex, Integer.MIN_VALUE);
+	}
+
+	public ZLTextMark getFirstMark() {
+		return mySize != 0 ? getMark(0) : null;
+	}
+
+	public ZLTextMark getLastMark() {
+		return mySize != 0 ? getMark(mySize - 1) : null;
+	}
+
+	public ZLTextMark getNextMark(ZLTextMark position) {
+		final int index = lowerBound(position.ParagraphIndex, position.Offset);
+		return index < mySize ? getMark(index) : null;
+	}
+
+	public ZLTextMark getPreviousMark(ZLTextMark position) {
+		final int index = lowerBound(position.ParagraphIndex, position.Offset) - 1;
+		return index >= 0 ? getMark(index) : null;
+	}
+
+	/**
+	 * @return store with marks of the both stores; marks of the other store
+	 * must lie between two consecutive marks of this one
+	 */
+	ZLTextMarkStore insertBlock(ZLTextMarkStore block) {
+		if (block.mySize == 0) {
+			return this;
+		}
+		final int position = lowerBound(block.myParagraphs[0], block.myOffsets[0]);
+		final int size = mySize + block.mySize;
+		final int[] paragraphs = new int[size];
+		final int[] offsets = new int[size];
+		final int[] lengths = new int[size];
+		copy(this, 0, paragraphs, offsets, lengths, 0, position);
+		copy(block, 0, paragraphs, offsets, lengths, position, block.mySize);
+		copy(this, position, paragraphs, offsets, lengths, position + block.mySize, mySize - position);
+		return new ZLTextMarkStore(paragraphs, offsets, lengths, size);
+	}
+
+	private static void copy(ZLTextMarkStore from, int start, int[] paragraphs, int[] offsets, int[] lengths, int to, int count) {
+		System.arraycopy(from.myParagraphs, start, paragraphs, to, count);
+		System.arraycopy(from.myOffsets, start, offsets, to, count);
+		System.arraycopy(from.myLengths, start, lengths, to, count);
+	}
+
+	/**
+	 * @return read-only list view; ZLTextMark objects are created on access
+	 */
+	public List<ZLTextMark> asList() {
+		return new AbstractList<ZLTextMark>() {
+			@Override
+			public ZLTextMark get(int index) {
+				if (index < 0 || index >= mySize) {
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				}
+				return getMark(index);
+			}
+
+			@Override
+			public int size() {
+				return mySize;
+			}
+		};
+	}
+}
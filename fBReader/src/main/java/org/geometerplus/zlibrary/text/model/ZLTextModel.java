@@ -21,6 +21,8 @@ package org.geometerplus.zlibrary.text.model;
 
 import java.util.List;
 
+import org.geometerplus.zlibrary.core.util.ZLSearchPattern;
+
 public interface ZLTextModel {
 	String getId();
 	String getLanguage();
@@ -35,10 +37,14 @@ public interface ZLTextModel {
 	ZLTextMark getPreviousMark(ZLTextMark position);
 
 	List<ZLTextMark> getMarks();
+	ZLTextMarkStore getMarkStore();
 
 	// text length for paragraphs from 0 to index
 	int getTextLength(int index);
 	int findParagraphByTextLength(int length);
 
 	int search(final String text, int startIndex, int endIndex, boolean ignoreCase);
+	// starts a parallel search; marks are added while chunks are scanned,
+	// the chunk that contains fromIndex goes first
+	ZLTextSearch startSearch(ZLSearchPattern pattern, int startIndex, int endIndex, int fromIndex, boolean backward, ZLTextSearch.Listener listener);
 }
@@ -41,6 +41,11 @@ public interface ZLTextParagraph {
 		char[] getTextData();
 		int getTextOffset();
 		int getTextLength();
+		/**
+		 * @return true if the text data array is reused by the next call of next(),
+		 * so the text must be copied to be kept
+		 */
+		boolean isTextDataTemporary();
 
 		byte getControlKind();
 		boolean getControlIsStart();
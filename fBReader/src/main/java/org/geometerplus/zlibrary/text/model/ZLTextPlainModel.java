@@ -19,6 +19,7 @@
 
 package org.geometerplus.zlibrary.text.model;
 
+import java.nio.CharBuffer;
 import java.util.*;
 
 import org.geometerplus.zlibrary.core.fonts.FontManager;
@@ -40,10 +41,20 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 	private final CachedCharStorage myStorage;
 	private final Map<String,ZLImage> myImageMap;
 
-	private ArrayList<ZLTextMark> myMarks;
+	// immutable, replaced as a whole when marks are added
+	private volatile ZLTextMarkStore myMarks;
+	private final Object myMarksLock = new Object();
+	private ZLTextSearch mySearch;
 
 	private final FontManager myFontManager;
 
+	private volatile int myLastPrefetchedBlock = -1;
+
+	private volatile ZLTextSearchIndex mySearchIndex;
+
+	// shared decoded style, image, hyperlink and extension entries
+	private final ZLTextEntryCache myEntryCache = new ZLTextEntryCache();
+
 	final class EntryIteratorImpl implements ZLTextParagraph.EntryIterator {
 		private int myCounter;
 		private int myLength;
@@ -52,10 +63,18 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		int myDataIndex;
 		int myDataOffset;
 
+		// block being read: a view of the mapped block file or of the heap block
+		private CharBuffer myData;
+		private int myDataBlockIndex = -1;
+		// copies of mapped chars, reused by the next entries
+		private char[] myTextBuffer = new char[256];
+		private char[] myEntryBuffer = new char[64];
+
 		// TextEntry data
 		private char[] myTextData;
 		private int myTextOffset;
 		private int myTextLength;
+		private boolean myTextDataIsTemporary;
 
 		// ControlEntry data
 		private byte myControlKind;
@@ -79,6 +98,8 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		// FixedHSpaceEntry data
 		private short myFixedHSpaceLength;
 
+		private final ZLTextEntryCache.Key myProbe = new ZLTextEntryCache.Key();
+
 		EntryIteratorImpl(int index) {
 			reset(index);
 		}
@@ -88,6 +109,7 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 			myLength = myParagraphLengths[index];
 			myDataIndex = myStartEntryIndices[index];
 			myDataOffset = myStartEntryOffsets[index];
+			prefetchAround(myDataIndex);
 		}
 
 		public byte getType() {
@@ -103,6 +125,9 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		public int getTextLength() {
 			return myTextLength;
 		}
+		public boolean isTextDataTemporary() {
+			return myTextDataIsTemporary;
+		}
 
 		public byte getControlKind() {
 			return myControlKind;
@@ -137,51 +162,109 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 			return myFixedHSpaceLength;
 		}
 
+		// mapped blocks are read in place; heap blocks are used
+		// when the storage is not mapped or the file cannot be mapped
+		private CharBuffer data(int index) {
+			if (index != myDataBlockIndex) {
+				CharBuffer data = myStorage.mappedBlock(index);
+				if (data == null) {
+					final char[] block = myStorage.block(index);
+					if (block == null) {
+						return null;
+					}
+					data = CharBuffer.wrap(block);
+				}
+				myData = data;
+				myDataBlockIndex = index;
+			}
+			return myData;
+		}
+
+		private void copy(CharBuffer data, int start, char[] buffer, int length) {
+			for (int i = 0; i < length; ++i) {
+				buffer[i] = data.get(start + i);
+			}
+		}
+
+		private ZLTextEntryCache.Key probe(CharBuffer data, int start, int length) {
+			if (data.hasArray()) {
+				return myProbe.set(data.array(), data.arrayOffset() + start, length);
+			}
+			if (myEntryBuffer.length < length) {
+				myEntryBuffer = new char[Math.max(length, 2 * myEntryBuffer.length)];
+			}
+			copy(data, start, myEntryBuffer, length);
+			return myProbe.set(myEntryBuffer, 0, length);
+		}
+
+		private String string(CharBuffer data, int start, int length) {
+			if (data.hasArray()) {
+				return new String(data.array(), data.arrayOffset() + start, length);
+			}
+			final char[] chars = new char[length];
+			copy(data, start, chars, length);
+			return new String(chars);
+		}
+
 		public boolean next() {
 			if (myCounter >= myLength) {
 				return false;
 			}
 
 			int dataOffset = myDataOffset;
-			char[] data = myStorage.block(myDataIndex);
+			CharBuffer data = data(myDataIndex);
 			if (data == null) {
 				return false;
 			}
-			if (dataOffset >= data.length) {
-				data = myStorage.block(++myDataIndex);
+			if (dataOffset >= data.limit()) {
+				data = data(++myDataIndex);
 				if (data == null) {
 					return false;
 				}
 				dataOffset = 0;
+				prefetchAround(myDataIndex);
 			}
-			short first = (short)data[dataOffset];
+			short first = (short)data.get(dataOffset);
 			byte type = (byte)first;
 			if (type == 0) {
-				data = myStorage.block(++myDataIndex);
+				data = data(++myDataIndex);
 				if (data == null) {
 					return false;
 				}
 				dataOffset = 0;
-				first = (short)data[0];
+				prefetchAround(myDataIndex);
+				first = (short)data.get(0);
 				type = (byte)first;
 			}
 			myType = type;
+			final int entryStart = dataOffset;
 			++dataOffset;
 			switch (type) {
 				case ZLTextParagraph.Entry.TEXT:
 				{
-					int textLength = (int)data[dataOffset++];
-					textLength += (((int)data[dataOffset++]) << 16);
-					textLength = Math.min(textLength, data.length - dataOffset);
+					int textLength = (int)data.get(dataOffset++);
+					textLength += (((int)data.get(dataOffset++)) << 16);
+					textLength = Math.min(textLength, data.limit() - dataOffset);
 					myTextLength = textLength;
-					myTextData = data;
-					myTextOffset = dataOffset;
+					if (data.hasArray()) {
+						myTextData = data.array();
+						myTextOffset = data.arrayOffset() + dataOffset;
+						myTextDataIsTemporary = false;
+					} else {
+						if (myTextBuffer.length < textLength) {
+							myTextBuffer = new char[Math.max(textLength, 2 * myTextBuffer.length)];
+						}
+						copy(data, dataOffset, myTextBuffer, textLength);
+						myTextData = myTextBuffer;
+						myTextOffset = 0;
+						myTextDataIsTemporary = true;
+					}
 					dataOffset += textLength;
 					break;
 				}
 				case ZLTextParagraph.Entry.CONTROL:
 				{
-					short kind = (short)data[dataOffset++];
+					short kind = (short)data.get(dataOffset++);
 					myControlKind = (byte)kind;
 					myControlIsStart = (kind & 0x0100) == 0x0100;
 					myHyperlinkType = 0;
@@ -189,48 +272,72 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 				}
 				case ZLTextParagraph.Entry.HYPERLINK_CONTROL:
 				{
-					final short kind = (short)data[dataOffset++];
+					final short kind = (short)data.get(dataOffset++);
 					myControlKind = (byte)kind;
 					myControlIsStart = true;
 					myHyperlinkType = (byte)(kind >> 8);
-					final short labelLength = (short)data[dataOffset++];
-					myHyperlinkId = new String(data, dataOffset, labelLength);
+					final short labelLength = (short)data.get(dataOffset++);
+					final ZLTextEntryCache.Key key =
+						probe(data, entryStart, dataOffset + labelLength - entryStart);
+					String id = (String)myEntryCache.get(key);
+					if (id == null) {
+						id = string(data, dataOffset, labelLength);
+						myEntryCache.put(key, id);
+					}
+					myHyperlinkId = id;
 					dataOffset += labelLength;
 					break;
 				}
 				case ZLTextParagraph.Entry.IMAGE:
 				{
-					final short vOffset = (short)data[dataOffset++];
-					final short len = (short)data[dataOffset++];
-					final String id = new String(data, dataOffset, len);
-					dataOffset += len;
-					final boolean isCover = data[dataOffset++] != 0;
-					myImageEntry = new ZLImageEntry(myImageMap, id, vOffset, isCover);
+					final short vOffset = (short)data.get(dataOffset++);
+					final short len = (short)data.get(dataOffset++);
+					final ZLTextEntryCache.Key key =
+						probe(data, entryStart, dataOffset + len + 1 - entryStart);
+					ZLImageEntry entry = (ZLImageEntry)myEntryCache.get(key);
+					if (entry == null) {
+						final String id = string(data, dataOffset, len);
+						final boolean isCover = data.get(dataOffset + len) != 0;
+						entry = new ZLImageEntry(myImageMap, id, vOffset, isCover);
+						myEntryCache.put(key, entry);
+					}
+					dataOffset += len + 1;
+					myImageEntry = entry;
 					break;
 				}
 				case ZLTextParagraph.Entry.FIXED_HSPACE:
-					myFixedHSpaceLength = (short)data[dataOffset++];
+					myFixedHSpaceLength = (short)data.get(dataOffset++);
 					break;
 				case ZLTextParagraph.Entry.STYLE_CSS:
 				case ZLTextParagraph.Entry.STYLE_OTHER:
 				{
+					final short mask = (short)data.get(dataOffset);
+					final int entryEnd = dataOffset + 1 + styleEntrySize(mask);
+					final ZLTextEntryCache.Key key = probe(data, entryStart, entryEnd - entryStart);
+					final ZLTextStyleEntry cached = (ZLTextStyleEntry)myEntryCache.get(key);
+					if (cached != null) {
+						myStyleEntry = cached;
+						dataOffset = entryEnd;
+						break;
+					}
+
 					final short depth = (short)((first >> 8) & 0xFF);
 					final ZLTextStyleEntry entry =
 						type == ZLTextParagraph.Entry.STYLE_CSS
 							? new ZLTextCSSStyleEntry(depth)
 							: new ZLTextOtherStyleEntry();
 
-					final short mask = (short)data[dataOffset++];
+					++dataOffset;
 					for (int i = 0; i < NUMBER_OF_LENGTHS; ++i) {
 						if (ZLTextStyleEntry.isFeatureSupported(mask, i)) {
-							final short size = (short)data[dataOffset++];
-							final byte unit = (byte)data[dataOffset++];
+							final short size = (short)data.get(dataOffset++);
+							final byte unit = (byte)data.get(dataOffset++);
 							entry.setLength(i, size, unit);
 						}
 					}
 					if (ZLTextStyleEntry.isFeatureSupported(mask, ALIGNMENT_TYPE) ||
 						ZLTextStyleEntry.isFeatureSupported(mask, NON_LENGTH_VERTICAL_ALIGN)) {
-						final short value = (short)data[dataOffset++];
+						final short value = (short)data.get(dataOffset++);
 						if (ZLTextStyleEntry.isFeatureSupported(mask, ALIGNMENT_TYPE)) {
 							entry.setAlignmentType((byte)(value & 0xFF));
 						}
@@ -239,14 +346,16 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 						}
 					}
 					if (ZLTextStyleEntry.isFeatureSupported(mask, FONT_FAMILY)) {
-						entry.setFontFamilies(myFontManager, (short)data[dataOffset++]);
+						entry.setFontFamilies(myFontManager, (short)data.get(dataOffset++));
 					}
 					if (ZLTextStyleEntry.isFeatureSupported(mask, FONT_STYLE_MODIFIER)) {
-						final short value = (short)data[dataOffset++];
+						final short value = (short)data.get(dataOffset++);
 						entry.setFontModifiers((byte)(value & 0xFF), (byte)((value >> 8) & 0xFF));
 					}
 
+					myEntryCache.put(key, entry);
 					myStyleEntry = entry;
+					break;
 				}
 				case ZLTextParagraph.Entry.STYLE_CLOSE:
 					// No data
@@ -260,13 +369,13 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 				case ZLTextParagraph.Entry.VIDEO:
 				{
 					myVideoEntry = new ZLVideoEntry();
-					final short mapSize = (short)data[dataOffset++];
+					final short mapSize = (short)data.get(dataOffset++);
 					for (short i = 0; i < mapSize; ++i) {
-						short len = (short)data[dataOffset++];
-						final String mime = new String(data, dataOffset, len);
+						short len = (short)data.get(dataOffset++);
+						final String mime = string(data, dataOffset, len);
 						dataOffset += len;
-						len = (short)data[dataOffset++];
-						final String src = new String(data, dataOffset, len);
+						len = (short)data.get(dataOffset++);
+						final String src = string(data, dataOffset, len);
 						dataOffset += len;
 						myVideoEntry.addSource(mime, src);
 					}
@@ -274,21 +383,33 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 				}
 				case ZLTextParagraph.Entry.EXTENSION:
 				{
-					final short kindLength = (short)data[dataOffset++];
-					final String kind = new String(data, dataOffset, kindLength);
-					dataOffset += kindLength;
-
-					final Map<String,String> map = new HashMap<String,String>();
 					final short dataSize = (short)((first >> 8) & 0xFF);
+					int entryEnd = dataOffset + 1 + data.get(dataOffset);
 					for (short i = 0; i < dataSize; ++i) {
-						final short keyLength = (short)data[dataOffset++];
-						final String key = new String(data, dataOffset, keyLength);
-						dataOffset += keyLength;
-						final short valueLength = (short)data[dataOffset++];
-						map.put(key, new String(data, dataOffset, valueLength));
-						dataOffset += valueLength;
+						entryEnd += 1 + data.get(entryEnd);
+						entryEnd += 1 + data.get(entryEnd);
 					}
-					myExtensionEntry = new ExtensionEntry(kind, map);
+					final ZLTextEntryCache.Key cacheKey = probe(data, entryStart, entryEnd - entryStart);
+					ExtensionEntry entry = (ExtensionEntry)myEntryCache.get(cacheKey);
+					if (entry == null) {
+						final short kindLength = (short)data.get(dataOffset++);
+						final String kind = string(data, dataOffset, kindLength);
+						dataOffset += kindLength;
+
+						final Map<String,String> map = new HashMap<String,String>();
+						for (short i = 0; i < dataSize; ++i) {
+							final short keyLength = (short)data.get(dataOffset++);
+							final String key = string(data, dataOffset, keyLength);
+							dataOffset += keyLength;
+							final short valueLength = (short)data.get(dataOffset++);
+							map.put(key, string(data, dataOffset, valueLength));
+							dataOffset += valueLength;
+						}
+						entry = new ExtensionEntry(kind, Collections.unmodifiableMap(map));
+						myEntryCache.put(cacheKey, entry);
+					}
+					dataOffset = entryEnd;
+					myExtensionEntry = entry;
 					break;
 				}
 			}
@@ -312,6 +433,32 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		int blocksNumber,
 		Map<String,ZLImage> imageMap,
 		FontManager fontManager
+	) {
+		this(
+			id, language, paragraphsNumber,
+			entryIndices, entryOffsets,
+			paragraphLengths, textSizes, paragraphKinds,
+			new CachedCharStorage(directoryName, fileExtension, blocksNumber),
+			imageMap, fontManager
+		);
+	}
+
+	/**
+	 * Creates a model over a storage that can be shared with other models
+	 * written into the same block files (e.g., footnotes of a book).
+	 */
+	public ZLTextPlainModel(
+		String id,
+		String language,
+		int paragraphsNumber,
+		int[] entryIndices,
+		int[] entryOffsets,
+		int[] paragraphLengths,
+		int[] textSizes,
+		byte[] paragraphKinds,
+		CachedCharStorage storage,
+		Map<String,ZLImage> imageMap,
+		FontManager fontManager
 	) {
 		myId = id;
 		myLanguage = language;
@@ -321,11 +468,44 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 		myParagraphLengths = paragraphLengths;
 		myTextSizes = textSizes;
 		myParagraphKinds = paragraphKinds;
-		myStorage = new CachedCharStorage(directoryName, fileExtension, blocksNumber);
+		myStorage = storage;
 		myImageMap = imageMap;
 		myFontManager = fontManager;
 	}
 
+	// number of chars after the feature mask of a style entry
+	private static int styleEntrySize(short mask) {
+		int size = 0;
+		for (int i = 0; i < NUMBER_OF_LENGTHS; ++i) {
+			if (ZLTextStyleEntry.isFeatureSupported(mask, i)) {
+				size += 2;
+			}
+		}
+		if (ZLTextStyleEntry.isFeatureSupported(mask, ALIGNMENT_TYPE) ||
+			ZLTextStyleEntry.isFeatureSupported(mask, NON_LENGTH_VERTICAL_ALIGN)) {
+			++size;
+		}
+		if (ZLTextStyleEntry.isFeatureSupported(mask, FONT_FAMILY)) {
+			++size;
+		}
+		if (ZLTextStyleEntry.isFeatureSupported(mask, FONT_STYLE_MODIFIER)) {
+			++size;
+		}
+		return size;
+	}
+
+	private void prefetchAround(int blockIndex) {
+		// mapped blocks are read in place, heap copies are not needed
+		if (myStorage.isMemoryMapped()) {
+			return;
+		}
+		if (blockIndex != myLastPrefetchedBlock) {
+			myLastPrefetchedBlock = blockIndex;
+			myStorage.prefetch(blockIndex + 1);
+			myStorage.prefetch(blockIndex - 1);
+		}
+	}
+
 	public final String getId() {
 		return myId;
 	}
@@ -335,86 +515,135 @@ public final class ZLTextPlainModel implements ZLTextModel, ZLTextStyleEntry.Fea
 	}
 
 	public final ZLTextMark getFirstMark() {
-		return (myMarks == null || myMarks.isEmpty()) ? null : myMarks.get(0);
+		final ZLTextMarkStore marks = myMarks;
+		return marks != null ? marks.getFirstMark() : null;
 	}
 
 	public final ZLTextMark getLastMark() {
-		return (myMarks == null || myMarks.isEmpty()) ? null : myMarks.get(myMarks.size() - 1);
+		final ZLTextMarkStore marks = myMarks;
+		return marks != null ? marks.getLastMark() : null;
 	}
 
 	public final ZLTextMark getNextMark(ZLTextMark position) {
-		if (position == null || myMarks == null) {
+		final ZLTextMarkStore marks = myMarks;
+		if (position == null || marks == null) {
 			return null;
 		}
-
-		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
-			if (current.compareTo(position) >= 0) {
-				if ((mark == null) || (mark.compareTo(current) > 0)) {
-					mark = current;
-				}
-			}
-		}
-		return mark;
+		return marks.getNextMark(position);
 	}
 
 	public final ZLTextMark getPreviousMark(ZLTextMark position) {
-		if ((position == null) || (myMarks == null)) {
+		final ZLTextMarkStore marks = myMarks;
+		if (position == null || marks == null) {
 			return null;
 		}
+		return marks.getPreviousMark(position);
+	}
 
-		ZLTextMark mark = null;
-		for (ZLTextMark current : myMarks) {
-			if (current.compareTo(position) < 0) {
-				if ((mark == null) || (mark.compareTo(current) < 0)) {
-					mark = current;
-				}
+	void setSearchIndex(ZLTextSearchIndex index) {
+		mySearchIndex = index;
+	}
+
+	public final int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
+		final ZLTextSearch search = startSearch(
+			new ZLSearchPattern(text, ignoreCase), startIndex, endIndex, startIndex, false, null
+		);
+		try {
+			return search.await();
+		} catch (InterruptedException e) {
+			search.cancel();
+			Thread.currentThread().interrupt();
+			return search.getCount();
+		}
+	}
+
+	public final ZLTextSearch startSearch(ZLSearchPattern pattern, int startIndex, int endIndex, int fromIndex, boolean backward, ZLTextSearch.Listener listener) {
+		startIndex = Math.min(startIndex, myParagraphsNumber);
+		endIndex = Math.min(endIndex, myParagraphsNumber);
+		if (pattern.getLength() == 0) {
+			endIndex = startIndex;
+		}
+		final ZLTextSearchIndex searchIndex = mySearchIndex;
+		final ZLTextSearch search = new ZLTextSearch(
+			this, pattern, searchIndex != null ? searchIndex.candidateParagraphs(pattern) : null,
+			startIndex, endIndex, fromIndex, backward, listener
+		);
+		synchronized (myMarksLock) {
+			if (mySearch != null) {
+				mySearch.cancel();
 			}
+			mySearch = search;
+			myMarks = ZLTextMarkStore.EMPTY;
 		}
-		return mark;
+		search.start();
+		return search;
 	}
 
-	public final int search(final String text, int startIndex, int endIndex, boolean ignoreCase) {
-		int count = 0;
-		ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
-		myMarks = new ArrayList<ZLTextMark>();
-		if (startIndex > myParagraphsNumber) {
-			startIndex = myParagraphsNumber;
-		}
-		if (endIndex > myParagraphsNumber) {
-			endIndex = myParagraphsNumber;
-		}
-		int index = startIndex;
-		final EntryIteratorImpl it = new EntryIteratorImpl(index);
-		while (true) {
+	/**
+	 * Scans paragraphs [startIndex, endIndex), or only the candidate ones
+	 * if candidates are not null; called on search threads.
+	 */
+	ZLTextMarkStore scan(ZLSearchPattern pattern, BitSet candidates, int startIndex, int endIndex, ZLTextSearch search) {
+		final ZLTextMarkStore.Builder marks = new ZLTextMarkStore.Builder();
+		final ZLSearchUtil.Result res = new ZLSearchUtil.Result();
+		EntryIteratorImpl it = null;
+		for (int index = startIndex; index < endIndex; ++index) {
+			if (candidates != null) {
+				index = candidates.nextSetBit(index);
+				if (index < 0 || index >= endIndex) {
+					break;
+				}
+			}
+			if (search.isCancelled()) {
+				break;
+			}
+			if (it == null) {
+				it = new EntryIteratorImpl(index);
+			} else {
+				it.reset(index);
+			}
 			int offset = 0;
 			while (it.next()) {
 				if (it.getType() == ZLTextParagraph.Entry.TEXT) {
 					char[] textData = it.getTextData();
 					int textOffset = it.getTextOffset();
 					int textLength = it.getTextLength();
-					for (ZLSearchUtil.Result res = ZLSearchUtil.find(textData, textOffset, textLength, pattern); res != null;
-						res = ZLSearchUtil.find(textData, textOffset, textLength, pattern, res.Start + 1)) {
-						myMarks.add(new ZLTextMark(index, offset + res.Start, res.Length));
-						++count;
+					for (int pos = 0; ZLSearchUtil.find(textData, textOffset, textLength, pattern, pos, res); pos = res.Start + 1) {
+						marks.add(index, offset + res.Start, res.Length);
 					}
 					offset += textLength;
 				}
 			}
-			if (++index >= endIndex) {
-				break;
+		}
+		return marks.build();
+	}
+
+	// chunks cover disjoint paragraph ranges, so the new marks are inserted as a block
+	void addMarks(ZLTextSearch search, ZLTextMarkStore marks) {
+		synchronized (myMarksLock) {
+			if (search == mySearch && !search.isCancelled()) {
+				myMarks = myMarks.insertBlock(marks);
 			}
-			it.reset(index);
 		}
-		return count;
 	}
 
 	public final List<ZLTextMark> getMarks() {
-		return myMarks != null ? myMarks : Collections.<ZLTextMark>emptyList();
+		return getMarkStore().asList();
+	}
+
+	public final ZLTextMarkStore getMarkStore() {
+		final ZLTextMarkStore marks = myMarks;
+		return marks != null ? marks : ZLTextMarkStore.EMPTY;
 	}
 
 	public final void removeAllMarks() {
-		myMarks = null;
+		synchronized (myMarksLock) {
+			if (mySearch != null) {
+				mySearch.cancel();
+				mySearch = null;
+			}
+			myMarks = null;
+		}
 	}
 
 	public final int getParagraphsNumber() {
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.geometerplus.zlibrary.core.util.ZLSearchPattern;
+
+/**
+ * A running search over a paragraph range of a text model.
+ *
+ * The range is split into chunks that are scanned in parallel. Chunk results
+ * are delivered in search order: starting from the chunk that contains the
+ * initial paragraph, forward or backward, wrapping around the range ends.
+ * So the first delivered marks are the ones closest to the reading position.
+ */
+public final class ZLTextSearch {
+	public interface Listener {
+		/**
+		 * Called on a search thread; the marks of a chunk are already
+		 * added to the model when this method is called.
+		 */
+		void onMarksFound(ZLTextSearch search, ZLTextMarkStore marks);
+		void onSearchFinished(ZLTextSearch search);
+	}
+
+	private static final int CHUNK_TEXT_LENGTH = 32 * 1024;
+
+	private static class SearchThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private static final ExecutorService ourPool = Executors.newFixedThreadPool(
+		Math.max(1, Runtime.getRuntime().availableProcessors()), new SearchThreadFactory()
+	);
+
+	private final ZLTextPlainModel myModel;
+	private final ZLSearchPattern myPattern;
+	private final BitSet myCandidates;
+	private final Listener myListener;
+
+	// chunk i covers paragraphs [myChunkStarts[i], myChunkStarts[i + 1])
+	private final int[] myChunkStarts;
+	// chunk indices in delivery order
+	private final int[] myOrder;
+	private final ZLTextMarkStore[] myResults;
+	// written under the lock, volatile for the lock-free getters
+	private volatile int myDelivered;
+	private volatile int myCount;
+
+	private volatile boolean myIsCancelled;
+	private volatile CachedCharStorageException myException;
+
+	ZLTextSearch(
+		ZLTextPlainModel model, ZLSearchPattern pattern, BitSet candidates,
+		int startIndex, int endIndex, int fromIndex, boolean backward, Listener listener
+	) {
+		myModel = model;
+		myPattern = pattern;
+		myCandidates = candidates;
+		myListener = listener;
+		myChunkStarts = splitRange(model, startIndex, endIndex);
+
+		final int chunksNumber = myChunkStarts.length - 1;
+		int first = 0;
+		while (first < chunksNumber - 1 && myChunkStarts[first + 1] <= fromIndex) {
+			++first;
+		}
+		myOrder = new int[chunksNumber];
+		for (int i = 0; i < chunksNumber; ++i) {
+			myOrder[i] = backward
+				? (first - i + chunksNumber) % chunksNumber
+				: (first + i) % chunksNumber;
+		}
+		myResults = new ZLTextMarkStore[chunksNumber];
+	}
+
+	private static int[] splitRange(ZLTextPlainModel model, int startIndex, int endIndex) {
+		final ArrayList<Integer> starts = new ArrayList<Integer>();
+		starts.add(startIndex);
+		int chunkStartLength = startIndex > 0 ? model.getTextLength(startIndex - 1) : 0;
+		for (int index = startIndex + 1; index < endIndex; ++index) {
+			final int length = model.getTextLength(index - 1);
+			if (length - chunkStartLength >= CHUNK_TEXT_LENGTH) {
+				starts.add(index);
+				chunkStartLength = length;
+			}
+		}
+		starts.add(endIndex);
+
+		final int[] array = new int[starts.size()];
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = starts.get(i);
+		}
+		return array;
+	}
+
+	void start() {
+		for (final int chunk : myOrder) {
+			ourPool.execute(new Runnable() {
+				public void run() {
+					ZLTextMarkStore marks = null;
+					if (!myIsCancelled) {
+						try {
+							marks = myModel.scan(
+								myPattern, myCandidates, myChunkStarts[chunk], myChunkStarts[chunk + 1], ZLTextSearch.this
+							);
+						} catch (CachedCharStorageException e) {
+							myException = e;
+							cancel();
+						}
+					}
+					onChunkFinished(chunk, marks != null ? marks : ZLTextMarkStore.EMPTY);
+				}
+			});
+		}
+	}
+
+	private synchronized void onChunkFinished(int chunk, ZLTextMarkStore marks) {
+		myResults[chunk] = marks;
+		while (myDelivered < myOrder.length && myResults[myOrder[myDelivered]] != null) {
+			final ZLTextMarkStore ready = myResults[myOrder[myDelivered]];
+			myResults[myOrder[myDelivered]] = null;
+			++myDelivered;
+			if (!myIsCancelled && !ready.isEmpty()) {
+				myCount += ready.size();
+				myModel.addMarks(this, ready);
+				if (myListener != null) {
+					myListener.onMarksFound(this, ready);
+				}
+			}
+		}
+		if (myDelivered == myOrder.length) {
+			if (myListener != null && !myIsCancelled) {
+				myListener.onSearchFinished(this);
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Stops the search; marks that are already added to the model are kept.
+	 */
+	public void cancel() {
+		myIsCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return myIsCancelled;
+	}
+
+	public boolean isFinished() {
+		return myDelivered == myOrder.length;
+	}
+
+	/**
+	 * @return number of marks found so far
+	 */
+	public int getCount() {
+		return myCount;
+	}
+
+	/**
+	 * Waits until all the chunks are scanned.
+	 *
+	 * @return number of found marks
+	 * @throws CachedCharStorageException if the text cannot be read
+	 */
+	public synchronized int await() throws InterruptedException {
+		while (myDelivered < myOrder.length) {
+			wait();
+		}
+		if (myException != null) {
+			throw myException;
+		}
+		return myCount;
+	}
+}
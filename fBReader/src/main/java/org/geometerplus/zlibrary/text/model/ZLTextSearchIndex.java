@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.model;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.geometerplus.zlibrary.core.util.ZLSearchPattern;
+import org.geometerplus.zlibrary.core.util.ZLSearchUtil;
+
+/**
+ * Inverted index of a text model: case-folded terms (maximal runs of
+ * letters and digits) to the sorted list of paragraphs they occur in.
+ *
+ * The index only narrows the set of paragraphs to scan; matches are still
+ * verified by ZLSearchUtil, so search results do not depend on whether
+ * the index is available.
+ */
+public final class ZLTextSearchIndex {
+	private static final int FORMAT_VERSION = 1;
+
+	private static class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private static final ExecutorService ourBuildService =
+		Executors.newSingleThreadExecutor(new MinPriorityThreadFactory());
+	private static Future<?> ourPendingTask;
+
+	/**
+	 * Attaches an index to the model in background: the index is read from
+	 * the file if it is present and matches the model, otherwise it is built
+	 * and written to the file. The previous pending task is cancelled.
+	 *
+	 * @param file index location, or null if the index must not be stored
+	 */
+	public static synchronized void prepare(final ZLTextPlainModel model, final File file) {
+		if (ourPendingTask != null) {
+			ourPendingTask.cancel(true);
+		}
+		ourPendingTask = ourBuildService.submit(new Runnable() {
+			public void run() {
+				ZLTextSearchIndex index = file != null ? read(file, model) : null;
+				if (index == null) {
+					index = build(model);
+					if (index == null) {
+						return;
+					}
+					if (file != null) {
+						index.write(file);
+					}
+				}
+				model.setSearchIndex(index);
+			}
+		});
+	}
+
+	public static synchronized void cancel() {
+		if (ourPendingTask != null) {
+			ourPendingTask.cancel(true);
+			ourPendingTask = null;
+		}
+	}
+
+	static boolean isTermChar(char ch) {
+		return Character.isLetterOrDigit(ch);
+	}
+
+	// the same folding as ZLSearchUtil uses in ignore case mode
+	static char fold(char ch) {
+		return ZLSearchUtil.foldCase(ch);
+	}
+
+	private static final class Postings {
+		int[] Data = new int[2];
+		int Size;
+
+		void add(int paragraphIndex) {
+			if (Size > 0 && Data[Size - 1] == paragraphIndex) {
+				return;
+			}
+			if (Size == Data.length) {
+				Data = Arrays.copyOf(Data, 2 * Size);
+			}
+			Data[Size++] = paragraphIndex;
+		}
+	}
+
+	/**
+	 * @return index of the model, or null if building was interrupted
+	 */
+	static ZLTextSearchIndex build(ZLTextPlainModel model) {
+		final int paragraphsNumber = model.getParagraphsNumber();
+		final HashMap<String,Postings> terms = new HashMap<String,Postings>();
+		final StringBuilder term = new StringBuilder();
+		ZLTextPlainModel.EntryIteratorImpl it = null;
+		for (int index = 0; index < paragraphsNumber; ++index) {
+			if (Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (it == null) {
+				it = model.new EntryIteratorImpl(index);
+			} else {
+				it.reset(index);
+			}
+			while (it.next()) {
+				if (it.getType() != ZLTextParagraph.Entry.TEXT) {
+					continue;
+				}
+				final char[] data = it.getTextData();
+				final int end = it.getTextOffset() + it.getTextLength();
+				for (int i = it.getTextOffset(); i <= end; ++i) {
+					final char ch = i < end ? data[i] : ' ';
+					if (ch == '\u200b') {
+						continue;
+					}
+					if (isTermChar(ch)) {
+						term.append(fold(ch));
+					} else if (term.length() > 0) {
+						final String key = term.toString();
+						Postings postings = terms.get(key);
+						if (postings == null) {
+							postings = new Postings();
+							terms.put(key, postings);
+						}
+						postings.add(index);
+						term.setLength(0);
+					}
+				}
+			}
+		}
+
+		final String[] sorted = terms.keySet().toArray(new String[terms.size()]);
+		Arrays.sort(sorted);
+		final int[] starts = new int[sorted.length + 1];
+		for (int i = 0; i < sorted.length; ++i) {
+			starts[i + 1] = starts[i] + terms.get(sorted[i]).Size;
+		}
+		final int[] paragraphs = new int[starts[sorted.length]];
+		for (int i = 0; i < sorted.length; ++i) {
+			final Postings postings = terms.get(sorted[i]);
+			System.arraycopy(postings.Data, 0, paragraphs, starts[i], postings.Size);
+		}
+		return new ZLTextSearchIndex(
+			paragraphsNumber, model.getTextLength(paragraphsNumber - 1), sorted, starts, paragraphs
+		);
+	}
+
+	private final int myParagraphsNumber;
+	private final int myTextLength;
+	private final String[] myTerms;
+	private final int[] myPostingStarts;
+	private final int[] myPostings;
+
+	private ZLTextSearchIndex(int paragraphsNumber, int textLength, String[] terms, int[] postingStarts, int[] postings) {
+		myParagraphsNumber = paragraphsNumber;
+		myTextLength = textLength;
+		myTerms = terms;
+		myPostingStarts = postingStarts;
+		myPostings = postings;
+	}
+
+	/**
+	 * @return paragraphs that can contain the pattern, or null if the index
+	 * cannot narrow the search (e.g., the pattern contains no letters or digits)
+	 */
+	BitSet candidateParagraphs(ZLSearchPattern searchPattern) {
+		// terms keep accents, so they cannot be used for accent-insensitive search
+		if (searchPattern.ignoresAccents()) {
+			return null;
+		}
+		final char[] pattern = searchPattern.getText().toCharArray();
+		BitSet result = null;
+		for (int i = 0; i < pattern.length; ) {
+			if (!isTermChar(pattern[i])) {
+				++i;
+				continue;
+			}
+			final int start = i;
+			final StringBuilder term = new StringBuilder();
+			for (; i < pattern.length && isTermChar(pattern[i]); ++i) {
+				term.append(fold(pattern[i]));
+			}
+			// a separator in the query before (after) the term means the matched
+			// text term starts (ends) with it; the query boundary means nothing
+			final BitSet paragraphs = paragraphsForTerm(term.toString(), start > 0, i < pattern.length);
+			if (result == null) {
+				result = paragraphs;
+			} else {
+				result.and(paragraphs);
+			}
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	private BitSet paragraphsForTerm(String term, boolean termStart, boolean termEnd) {
+		final BitSet paragraphs = new BitSet(myParagraphsNumber);
+		if (termStart) {
+			int i = Arrays.binarySearch(myTerms, term);
+			if (i < 0) {
+				if (termEnd) {
+					return paragraphs;
+				}
+				i = -i - 1;
+			}
+			for (; i < myTerms.length && myTerms[i].startsWith(term); ++i) {
+				if (!termEnd || myTerms[i].length() == term.length()) {
+					addPostings(paragraphs, i);
+				}
+			}
+		} else {
+			for (int i = 0; i < myTerms.length; ++i) {
+				final String t = myTerms[i];
+				if (termEnd ? t.endsWith(term) : t.contains(term)) {
+					addPostings(paragraphs, i);
+				}
+			}
+		}
+		return paragraphs;
+	}
+
+	private void addPostings(BitSet paragraphs, int termIndex) {
+		final int end = myPostingStarts[termIndex + 1];
+		for (int j = myPostingStarts[termIndex]; j < end; ++j) {
+			paragraphs.set(myPostings[j]);
+		}
+	}
+
+	/**
+	 * @return index stored in the file, or null if the file cannot be read
+	 * or was built for another model
+	 */
+	static ZLTextSearchIndex read(File file, ZLTextPlainModel model) {
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (stream.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			final int paragraphsNumber = stream.readInt();
+			final int textLength = stream.readInt();
+			if (paragraphsNumber != model.getParagraphsNumber() ||
+				textLength != model.getTextLength(paragraphsNumber - 1)) {
+				return null;
+			}
+			final String[] terms = new String[stream.readInt()];
+			final int[] starts = new int[terms.length + 1];
+			for (int i = 0; i < terms.length; ++i) {
+				terms[i] = stream.readUTF();
+				starts[i + 1] = starts[i] + stream.readInt();
+			}
+			final int[] paragraphs = new int[starts[terms.length]];
+			for (int i = 0; i < terms.length; ++i) {
+				// postings are delta-encoded
+				int previous = 0;
+				for (int j = starts[i]; j < starts[i + 1]; ++j) {
+					previous += stream.readInt();
+					paragraphs[j] = previous;
+				}
+			}
+			return new ZLTextSearchIndex(paragraphsNumber, textLength, terms, starts, paragraphs);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(stream);
+		}
+	}
+
+	void write(File file) {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			stream.writeInt(FORMAT_VERSION);
+			stream.writeInt(myParagraphsNumber);
+			stream.writeInt(myTextLength);
+			stream.writeInt(myTerms.length);
+			for (int i = 0; i < myTerms.length; ++i) {
+				stream.writeUTF(myTerms[i]);
+				stream.writeInt(myPostingStarts[i + 1] - myPostingStarts[i]);
+			}
+			for (int i = 0; i < myTerms.length; ++i) {
+				int previous = 0;
+				for (int j = myPostingStarts[i]; j < myPostingStarts[i + 1]; ++j) {
+					stream.writeInt(myPostings[j] - previous);
+					previous = myPostings[j];
+				}
+			}
+			stream.close();
+			stream = null;
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+		} finally {
+			close(stream);
+		}
+	}
+
+	private static void close(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
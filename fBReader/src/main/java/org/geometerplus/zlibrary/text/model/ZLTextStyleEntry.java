@@ -22,6 +22,7 @@ package org.geometerplus.zlibrary.text.model;
 import java.util.List;
 
 import org.fbreader.util.Boolean3;
+import org.fbreader.util.ComparisonUtil;
 
 import org.geometerplus.zlibrary.core.fonts.FontEntry;
 import org.geometerplus.zlibrary.core.fonts.FontManager;
@@ -204,6 +205,46 @@ public abstract class ZLTextStyleEntry {
 		return myVerticalAlignCode;
 	}
 
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other == null || other.getClass() != getClass()) {
+			return false;
+		}
+		final ZLTextStyleEntry entry = (ZLTextStyleEntry)other;
+		if (Depth != entry.Depth ||
+			myFeatureMask != entry.myFeatureMask ||
+			myAlignmentType != entry.myAlignmentType ||
+			mySupportedFontModifiers != entry.mySupportedFontModifiers ||
+			myFontModifiers != entry.myFontModifiers ||
+			myVerticalAlignCode != entry.myVerticalAlignCode) {
+			return false;
+		}
+		for (int i = 0; i < Feature.NUMBER_OF_LENGTHS; ++i) {
+			if (isFeatureSupported(i)) {
+				final Length l0 = myLengths[i];
+				final Length l1 = entry.myLengths[i];
+				if (l0.Size != l1.Size || l0.Unit != l1.Unit) {
+					return false;
+				}
+			}
+		}
+		return ComparisonUtil.equal(myFontEntries, entry.myFontEntries);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = Depth + 31 * myFeatureMask + 239 * myFontModifiers;
+		for (int i = 0; i < Feature.NUMBER_OF_LENGTHS; ++i) {
+			if (isFeatureSupported(i)) {
+				hash = 31 * hash + myLengths[i].Size;
+			}
+		}
+		return hash;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder buffer = new StringBuilder("StyleEntry[");
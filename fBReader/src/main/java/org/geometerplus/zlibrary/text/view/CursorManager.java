@@ -19,22 +19,183 @@
 
 package org.geometerplus.zlibrary.text.view;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import androidx.collection.LruCache;
 
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
 
+/**
+ * Paragraph cursor cache of a text model; together with the other caches
+ * it is limited by the element budget of ZLTextParagraphCursorCache.
+ * The cache may be used from several threads at once: LruCache is
+ * synchronized, and if two threads create a cursor for the same paragraph,
+ * both get the one stored first.
+ */
 final class CursorManager extends LruCache<Integer,ZLTextParagraphCursor> {
+	private static class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	// number of paragraphs prepared ahead of the reading position
+	private static final int READ_AHEAD_SIZE = 8;
+	private static final ExecutorService ourReadAheadService = Executors.newFixedThreadPool(
+		Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1)),
+		new MinPriorityThreadFactory()
+	);
+
 	private final ZLTextModel myModel;
 	final ExtensionElementManager ExtensionManager;
+	// lines laid out from the cursors of this cache, or null
+	private final ZLTextLineInfoCache myLineInfoCache;
+
+	// paragraphs queued for read-ahead
+	private final Set<Integer> myPending =
+		Collections.newSetFromMap(new ConcurrentHashMap<Integer,Boolean>());
+	// incremented on invalidation; a cursor built before it is not kept
+	private final AtomicInteger myGeneration = new AtomicInteger();
+	// guards generation changes against insertion of cursors built in background
+	private final Object myGenerationLock = new Object();
+	// cursor built in background, returned by create() while it is being inserted
+	private final ThreadLocal<ZLTextParagraphCursor> myBuilt = new ThreadLocal<ZLTextParagraphCursor>();
+
+	private final AtomicLong myBuildTime = new AtomicLong();
 
 	CursorManager(ZLTextModel model, ExtensionElementManager extManager) {
-		super(200); // max 200 cursors in the cache
+		this(model, extManager, null);
+	}
+
+	CursorManager(ZLTextModel model, ExtensionElementManager extManager, ZLTextLineInfoCache lineInfoCache) {
+		super(ZLTextParagraphCursorCache.Instance().budget());
 		myModel = model;
 		ExtensionManager = extManager;
+		myLineInfoCache = lineInfoCache;
+		ZLTextParagraphCursorCache.Instance().register(this);
 	}
 
 	@Override
 	protected ZLTextParagraphCursor create(Integer index) {
-		return new ZLTextParagraphCursor(this, myModel, index);
+		ZLTextParagraphCursor cursor = myBuilt.get();
+		if (cursor == null || cursor.Index != index) {
+			cursor = build(index);
+		}
+		// the budget is shared by all the caches
+		ZLTextParagraphCursorCache.Instance().reserve(cursor.Weight);
+		return cursor;
+	}
+
+	private ZLTextParagraphCursor build(int index) {
+		final long start = System.nanoTime();
+		final ZLTextParagraphCursor cursor = new ZLTextParagraphCursor(this, myModel, index);
+		myBuildTime.addAndGet(System.nanoTime() - start);
+		return cursor;
+	}
+
+	// lines of a removed cursor must not keep it alive
+	@Override
+	protected void entryRemoved(boolean evicted, Integer index, ZLTextParagraphCursor oldCursor, ZLTextParagraphCursor newCursor) {
+		if (myLineInfoCache != null && oldCursor != newCursor) {
+			myLineInfoCache.removeCursor(oldCursor);
+		}
+	}
+
+	/**
+	 * Drops the cached lines of the removed cursors now, not on the next layout.
+	 */
+	void purgeLines() {
+		if (myLineInfoCache != null) {
+			myLineInfoCache.purge();
+		}
+	}
+
+	// the cache is weighed by paragraph elements, not by cursors
+	@Override
+	protected int sizeOf(Integer index, ZLTextParagraphCursor cursor) {
+		return cursor.Weight;
+	}
+
+	long buildTimeNanos() {
+		return myBuildTime.get();
+	}
+
+	/**
+	 * Removes the paragraph cursor, e.g., after the paragraph marks change;
+	 * cursors being built for the paragraph in background are dropped too.
+	 */
+	void invalidate(int index) {
+		synchronized (myGenerationLock) {
+			myGeneration.incrementAndGet();
+			remove(index);
+		}
+	}
+
+	void invalidateAll() {
+		synchronized (myGenerationLock) {
+			myGeneration.incrementAndGet();
+			evictAll();
+		}
+	}
+
+	/**
+	 * Stores a cursor built in background unless the cache was invalidated
+	 * after the build was started, or the paragraph is cached already.
+	 */
+	private void insert(ZLTextParagraphCursor cursor, int generation) {
+		synchronized (myGenerationLock) {
+			if (generation != myGeneration.get()) {
+				return;
+			}
+			// LruCache has no putIfAbsent: get() inserts the result of create()
+			// only if the paragraph is not cached yet
+			myBuilt.set(cursor);
+			try {
+				get(cursor.Index);
+			} finally {
+				myBuilt.remove();
+			}
+		}
+	}
+
+	/**
+	 * Builds cursors of the paragraphs following (or preceding) the given one
+	 * in background, so that turning pages does not wait for line breaking.
+	 */
+	void readAhead(int index, boolean forward) {
+		final int paragraphsNumber = myModel.getParagraphsNumber();
+		for (int i = 1; i <= READ_AHEAD_SIZE; ++i) {
+			final int paragraph = forward ? index + i : index - i;
+			if (paragraph < 0 || paragraph >= paragraphsNumber) {
+				break;
+			}
+			if (!myPending.add(paragraph)) {
+				continue;
+			}
+			final int generation = myGeneration.get();
+			ourReadAheadService.execute(new Runnable() {
+				public void run() {
+					try {
+						if (generation != myGeneration.get()) {
+							return;
+						}
+						// built outside the cache, so a cursor built by the old marks
+						// is never stored
+						insert(build(paragraph), generation);
+					} finally {
+						myPending.remove(paragraph);
+					}
+				}
+			});
+		}
 	}
 }
@@ -21,149 +21,289 @@ package org.geometerplus.zlibrary.text.view;
 
 import java.util.*;
 
+/**
+ * Element areas of a page.
+ *
+ * Areas are added while the page is being prepared, in text order; then
+ * index() makes an immutable snapshot with search structures, and all the
+ * lookups read the last snapshot without locking. Before the first index()
+ * call after clear() the vector looks empty.
+ */
 final class ZLTextElementAreaVector {
-	private final List<ZLTextElementArea> myAreas =
-		Collections.synchronizedList(new ArrayList<ZLTextElementArea>());
-	private final List<ZLTextRegion> myElementRegions = new ArrayList<ZLTextRegion>();
+	private static final class Index {
+		static final Index EMPTY = new Index(
+			new ArrayList<ZLTextElementArea>(), new ArrayList<ZLTextRegion>()
+		);
+
+		// in text order, i.e., sorted by position
+		final ZLTextElementArea[] Areas;
+		final List<ZLTextElementArea> AreaList;
+		final ZLTextRegion[] Regions;
+		// bounding boxes of the regions
+		final int[] RegionLeft;
+		final int[] RegionRight;
+		final int[] RegionTop;
+		final int[] RegionBottom;
+		// row i (a line of a column) is Areas[RowStart[i] .. RowStart[i + 1]), sorted by x;
+		// rows of column c are RowStart[ColumnRows[c] .. ColumnRows[c + 1]), sorted by y
+		final int[] RowStart;
+		final int[] RowTop;
+		final int[] RowBottom;
+		final int[] ColumnRows;
+
+		Index(ArrayList<ZLTextElementArea> areas, ArrayList<ZLTextRegion> regions) {
+			Areas = areas.toArray(new ZLTextElementArea[areas.size()]);
+			AreaList = Collections.unmodifiableList(Arrays.asList(Areas));
+
+			Regions = regions.toArray(new ZLTextRegion[regions.size()]);
+			RegionLeft = new int[Regions.length];
+			RegionRight = new int[Regions.length];
+			RegionTop = new int[Regions.length];
+			RegionBottom = new int[Regions.length];
+			for (int i = 0; i < Regions.length; ++i) {
+				int left = Integer.MAX_VALUE;
+				int right = Integer.MIN_VALUE;
+				int top = Integer.MAX_VALUE;
+				int bottom = Integer.MIN_VALUE;
+				for (ZLTextElementArea area : Regions[i].textAreas()) {
+					left = Math.min(left, area.XStart);
+					right = Math.max(right, area.XEnd);
+					top = Math.min(top, area.YStart);
+					bottom = Math.max(bottom, area.YEnd);
+				}
+				RegionLeft[i] = left;
+				RegionRight[i] = right;
+				RegionTop[i] = top;
+				RegionBottom[i] = bottom;
+			}
+
+			// a line ends where x goes back or the column changes
+			int rows = 0;
+			for (int i = 0; i < Areas.length; ++i) {
+				if (startsRow(i)) {
+					++rows;
+				}
+			}
+			RowStart = new int[rows + 1];
+			RowTop = new int[rows];
+			RowBottom = new int[rows];
+			ColumnRows = new int[3];
+			int row = -1;
+			for (int i = 0; i < Areas.length; ++i) {
+				final ZLTextElementArea area = Areas[i];
+				if (startsRow(i)) {
+					++row;
+					RowStart[row] = i;
+					RowTop[row] = area.YStart;
+					RowBottom[row] = area.YEnd;
+					if (area.ColumnIndex == 0) {
+						ColumnRows[1] = row + 1;
+					}
+				} else {
+					RowTop[row] = Math.min(RowTop[row], area.YStart);
+					RowBottom[row] = Math.max(RowBottom[row], area.YEnd);
+				}
+			}
+			RowStart[rows] = Areas.length;
+			ColumnRows[2] = rows;
+		}
+
+		private boolean startsRow(int index) {
+			if (index == 0) {
+				return true;
+			}
+			final ZLTextElementArea area = Areas[index];
+			final ZLTextElementArea previous = Areas[index - 1];
+			return area.ColumnIndex != previous.ColumnIndex || area.XStart < previous.XStart;
+		}
+	}
+
+	private volatile Index myIndex = Index.EMPTY;
+
+	// the page being built; used by the building thread only
+	private ArrayList<ZLTextElementArea> myAreas = new ArrayList<ZLTextElementArea>();
+	private ArrayList<ZLTextRegion> myElementRegions = new ArrayList<ZLTextRegion>();
 	private ZLTextRegion myCurrentElementRegion;
 
 	void clear() {
-		synchronized (myAreas) {
-			myElementRegions.clear();
-			myCurrentElementRegion = null;
-			myAreas.clear();
-		}
+		// new lists, so that regions of the previous snapshot stay valid
+		myAreas = new ArrayList<ZLTextElementArea>();
+		myElementRegions = new ArrayList<ZLTextRegion>();
+		myCurrentElementRegion = null;
+		myIndex = Index.EMPTY;
+	}
+
+	/**
+	 * Publishes the areas added since clear().
+	 */
+	void index() {
+		myIndex = new Index(myAreas, myElementRegions);
 	}
 
+	/**
+	 * @return number of areas added since clear()
+	 */
 	public int size() {
 		return myAreas.size();
 	}
 
 	public List<ZLTextElementArea> areas() {
-		synchronized (myAreas) {
-			return new ArrayList<ZLTextElementArea>(myAreas);
-		}
+		return myIndex.AreaList;
 	}
 
 	public ZLTextElementArea getFirstArea() {
-		synchronized (myAreas) {
-			return myAreas.isEmpty() ? null : myAreas.get(0);
-		}
+		final ZLTextElementArea[] areas = myIndex.Areas;
+		return areas.length == 0 ? null : areas[0];
 	}
 
 	public ZLTextElementArea getLastArea() {
-		synchronized (myAreas) {
-			return myAreas.isEmpty() ? null : myAreas.get(myAreas.size() - 1);
-		}
+		final ZLTextElementArea[] areas = myIndex.Areas;
+		return areas.length == 0 ? null : areas[areas.length - 1];
 	}
 
 	public boolean add(ZLTextElementArea area) {
-		synchronized (myAreas) {
-			if (myCurrentElementRegion != null
-				&& myCurrentElementRegion.getSoul().accepts(area)) {
-				myCurrentElementRegion.extend();
+		if (myCurrentElementRegion != null
+			&& myCurrentElementRegion.getSoul().accepts(area)) {
+			myCurrentElementRegion.extend();
+		} else {
+			ZLTextRegion.Soul soul = null;
+			final ZLTextHyperlink hyperlink = area.Style.Hyperlink;
+			if (hyperlink.Id != null) {
+				soul = new ZLTextHyperlinkRegionSoul(area, hyperlink);
+			} else if (area.Element instanceof ZLTextImageElement) {
+				soul = new ZLTextImageRegionSoul(area, (ZLTextImageElement)area.Element);
+			} else if (area.Element instanceof ZLTextVideoElement) {
+				soul = new ZLTextVideoRegionSoul(area, (ZLTextVideoElement)area.Element);
+			} else if (area.Element instanceof ZLTextWord && !((ZLTextWord)area.Element).isASpace()) {
+				soul = new ZLTextWordRegionSoul(area, (ZLTextWord)area.Element);
+			} else if (area.Element instanceof ExtensionElement) {
+				soul = new ExtensionRegionSoul(area, (ExtensionElement)area.Element);
+			}
+			if (soul != null) {
+				myCurrentElementRegion = new ZLTextRegion(soul, myAreas, myAreas.size());
+				myElementRegions.add(myCurrentElementRegion);
 			} else {
-				ZLTextRegion.Soul soul = null;
-				final ZLTextHyperlink hyperlink = area.Style.Hyperlink;
-				if (hyperlink.Id != null) {
-					soul = new ZLTextHyperlinkRegionSoul(area, hyperlink);
-				} else if (area.Element instanceof ZLTextImageElement) {
-					soul = new ZLTextImageRegionSoul(area, (ZLTextImageElement)area.Element);
-				} else if (area.Element instanceof ZLTextVideoElement) {
-					soul = new ZLTextVideoRegionSoul(area, (ZLTextVideoElement)area.Element);
-				} else if (area.Element instanceof ZLTextWord && !((ZLTextWord)area.Element).isASpace()) {
-					soul = new ZLTextWordRegionSoul(area, (ZLTextWord)area.Element);
-				} else if (area.Element instanceof ExtensionElement) {
-					soul = new ExtensionRegionSoul(area, (ExtensionElement)area.Element);
-				}
-				if (soul != null) {
-					myCurrentElementRegion = new ZLTextRegion(soul, myAreas, myAreas.size());
-					myElementRegions.add(myCurrentElementRegion);
-				} else {
-					myCurrentElementRegion = null;
-				}
+				myCurrentElementRegion = null;
 			}
-			return myAreas.add(area);
 		}
+		return myAreas.add(area);
 	}
 
 	ZLTextElementArea getFirstAfter(ZLTextPosition position) {
 		if (position == null) {
 			return null;
 		}
-		synchronized (myAreas) {
-			for (ZLTextElementArea area : myAreas) {
-				if (position.compareTo(area) <= 0) {
-					return area;
-				}
+		final ZLTextElementArea[] areas = myIndex.Areas;
+		// first area that is not before the position
+		int low = 0;
+		int high = areas.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (position.compareTo(areas[middle]) > 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
 			}
 		}
-		return null;
+		return low < areas.length ? areas[low] : null;
 	}
 
 	ZLTextElementArea getLastBefore(ZLTextPosition position) {
 		if (position == null) {
 			return null;
 		}
-		synchronized (myAreas) {
-			for (int i = myAreas.size() - 1; i >= 0; --i) {
-				final ZLTextElementArea area = myAreas.get(i);
-				if (position.compareTo(area) > 0) {
-					return area;
-				}
+		final ZLTextElementArea[] areas = myIndex.Areas;
+		int low = 0;
+		int high = areas.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (position.compareTo(areas[middle]) > 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
 			}
 		}
-		return null;
+		return low > 0 ? areas[low - 1] : null;
 	}
 
 	ZLTextElementArea binarySearch(int x, int y) {
-		synchronized (myAreas) {
-			int left = 0;
-			int right = myAreas.size();
-			while (left < right) {
-				final int middle = (left + right) / 2;
-				final ZLTextElementArea candidate = myAreas.get(middle);
-				if (candidate.YStart > y) {
-					right = middle;
-				} else if (candidate.YEnd < y) {
-					left = middle + 1;
-				} else if (candidate.XStart > x) {
-					right = middle;
-				} else if (candidate.XEnd < x) {
-					left = middle + 1;
+		final Index index = myIndex;
+		for (int column = 0; column < 2; ++column) {
+			final int firstRow = index.ColumnRows[column];
+			final int lastRow = index.ColumnRows[column + 1];
+			// first row of the column that does not end above the point
+			int low = firstRow;
+			int high = lastRow;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (index.RowBottom[middle] < y) {
+					low = middle + 1;
 				} else {
-					return candidate;
+					high = middle;
+				}
+			}
+			for (int row = low; row < lastRow && index.RowTop[row] <= y; ++row) {
+				final ZLTextElementArea area = findInRow(index, row, x, y);
+				if (area != null) {
+					return area;
 				}
 			}
-			return null;
 		}
+		return null;
+	}
+
+	private static ZLTextElementArea findInRow(Index index, int row, int x, int y) {
+		final ZLTextElementArea[] areas = index.Areas;
+		// last area of the row that starts at or before x
+		int low = index.RowStart[row];
+		int high = index.RowStart[row + 1];
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (areas[middle].XStart <= x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int i = low - 1; i >= index.RowStart[row] && areas[i].XEnd >= x; --i) {
+			if (areas[i].contains(x, y)) {
+				return areas[i];
+			}
+		}
+		return null;
 	}
 
 	ZLTextRegion getRegion(ZLTextRegion.Soul soul) {
 		if (soul == null) {
 			return null;
 		}
-		synchronized (myAreas) {
-			for (ZLTextRegion region : myElementRegions) {
-				if (soul.equals(region.getSoul())) {
-					return region;
-				}
+		for (ZLTextRegion region : myIndex.Regions) {
+			if (soul.equals(region.getSoul())) {
+				return region;
 			}
 		}
 		return null;
 	}
 
 	ZLTextRegion findRegion(int x, int y, int maxDistance, ZLTextRegion.Filter filter) {
+		final Index index = myIndex;
 		ZLTextRegion bestRegion = null;
 		int distance = maxDistance + 1;
-		synchronized (myAreas) {
-			for (ZLTextRegion region : myElementRegions) {
-				if (filter.accepts(region)) {
-					final int d = region.distanceTo(x, y);
-					if (d < distance) {
-						bestRegion = region;
-						distance = d;
-					}
+		for (int i = 0; i < index.Regions.length; ++i) {
+			// the distance to the bounding box is not greater than to the region itself
+			final int xd = index.RegionLeft[i] > x
+				? index.RegionLeft[i] - x : (index.RegionRight[i] < x ? x - index.RegionRight[i] : 0);
+			final int yd = index.RegionTop[i] > y
+				? index.RegionTop[i] - y : (index.RegionBottom[i] < y ? y - index.RegionBottom[i] : 0);
+			if (Math.max(xd, yd) >= distance) {
+				continue;
+			}
+			final ZLTextRegion region = index.Regions[i];
+			if (filter.accepts(region)) {
+				final int d = region.distanceTo(x, y);
+				if (d < distance) {
+					bestRegion = region;
+					distance = d;
 				}
 			}
 		}
@@ -177,15 +317,13 @@ final class ZLTextElementAreaVector {
 
 	RegionPair findRegionsPair(int x, int y, int columnIndex, ZLTextRegion.Filter filter) {
 		RegionPair pair = new RegionPair();
-		synchronized (myAreas) {
-			for (ZLTextRegion region : myElementRegions) {
-				if (filter.accepts(region)) {
-					if (region.isBefore(x, y, columnIndex)) {
-						pair.Before = region;
-					} else {
-						pair.After = region;
-						break;
-					}
+		for (ZLTextRegion region : myIndex.Regions) {
+			if (filter.accepts(region)) {
+				if (region.isBefore(x, y, columnIndex)) {
+					pair.Before = region;
+				} else {
+					pair.After = region;
+					break;
 				}
 			}
 		}
@@ -193,90 +331,89 @@ final class ZLTextElementAreaVector {
 	}
 
 	protected ZLTextRegion nextRegion(ZLTextRegion currentRegion, ZLTextView.Direction direction, ZLTextRegion.Filter filter) {
-		synchronized (myAreas) {
-			if (myElementRegions.isEmpty()) {
-				return null;
-			}
+		final List<ZLTextRegion> regions = Arrays.asList(myIndex.Regions);
+		if (regions.isEmpty()) {
+			return null;
+		}
 
-			int index = currentRegion != null ? myElementRegions.indexOf(currentRegion) : -1;
+		int index = currentRegion != null ? regions.indexOf(currentRegion) : -1;
 
-			switch (direction) {
-				case rightToLeft:
-				case up:
-					if (index == -1) {
-						index = myElementRegions.size() - 1;
-					} else if (index == 0) {
-						return null;
-					} else {
-						--index;
-					}
-					break;
-				case leftToRight:
-				case down:
-					if (index == myElementRegions.size() - 1) {
-						return null;
-					} else {
-						++index;
-					}
-					break;
-			}
+		switch (direction) {
+			case rightToLeft:
+			case up:
+				if (index == -1) {
+					index = regions.size() - 1;
+				} else if (index == 0) {
+					return null;
+				} else {
+					--index;
+				}
+				break;
+			case leftToRight:
+			case down:
+				if (index == regions.size() - 1) {
+					return null;
+				} else {
+					++index;
+				}
+				break;
+		}
 
-			switch (direction) {
-				case rightToLeft:
-					for (; index >= 0; --index) {
-						final ZLTextRegion candidate = myElementRegions.get(index);
-						if (filter.accepts(candidate) && candidate.isAtLeftOf(currentRegion)) {
-							return candidate;
-						}
+		switch (direction) {
+			case rightToLeft:
+				for (; index >= 0; --index) {
+					final ZLTextRegion candidate = regions.get(index);
+					if (filter.accepts(candidate) && candidate.isAtLeftOf(currentRegion)) {
+						return candidate;
 					}
-					break;
-				case leftToRight:
-					for (; index < myElementRegions.size(); ++index) {
-						final ZLTextRegion candidate = myElementRegions.get(index);
-						if (filter.accepts(candidate) && candidate.isAtRightOf(currentRegion)) {
-							return candidate;
-						}
+				}
+				break;
+			case leftToRight:
+				for (; index < regions.size(); ++index) {
+					final ZLTextRegion candidate = regions.get(index);
+					if (filter.accepts(candidate) && candidate.isAtRightOf(currentRegion)) {
+						return candidate;
 					}
-					break;
-				case down:
-				{
-					ZLTextRegion firstCandidate = null;
-					for (; index < myElementRegions.size(); ++index) {
-						final ZLTextRegion candidate = myElementRegions.get(index);
-						if (!filter.accepts(candidate)) {
-							continue;
-						}
-						if (candidate.isExactlyUnder(currentRegion)) {
-							return candidate;
-						}
-						if (firstCandidate == null && candidate.isUnder(currentRegion)) {
-							firstCandidate = candidate;
-						}
+				}
+				break;
+			case down:
+			{
+				ZLTextRegion firstCandidate = null;
+				for (; index < regions.size(); ++index) {
+					final ZLTextRegion candidate = regions.get(index);
+					if (!filter.accepts(candidate)) {
+						continue;
 					}
-					if (firstCandidate != null) {
-						return firstCandidate;
+					if (candidate.isExactlyUnder(currentRegion)) {
+						return candidate;
+					}
+					if (firstCandidate == null && candidate.isUnder(currentRegion)) {
+						firstCandidate = candidate;
 					}
-					break;
 				}
-				case up:
-					ZLTextRegion firstCandidate = null;
-					for (; index >= 0; --index) {
-						final ZLTextRegion candidate = myElementRegions.get(index);
-						if (!filter.accepts(candidate)) {
-							continue;
-						}
-						if (candidate.isExactlyOver(currentRegion)) {
-							return candidate;
-						}
-						if (firstCandidate == null && candidate.isOver(currentRegion)) {
-							firstCandidate = candidate;
-						}
+				if (firstCandidate != null) {
+					return firstCandidate;
+				}
+				break;
+			}
+			case up:
+				ZLTextRegion firstCandidate = null;
+				for (; index >= 0; --index) {
+					final ZLTextRegion candidate = regions.get(index);
+					if (!filter.accepts(candidate)) {
+						continue;
 					}
-					if (firstCandidate != null) {
-						return firstCandidate;
+					if (candidate.isExactlyOver(currentRegion)) {
+						return candidate;
 					}
-					break;
-			}
+					if (firstCandidate == null && candidate.isOver(currentRegion)) {
+						firstCandidate = candidate;
+					}
+				}
+				if (firstCandidate != null) {
+					return firstCandidate;
+				}
+				break;
 		}
 		return null;
 	}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.*;
+
+/**
+ * Thread-safe sorted set of highlightings with interval queries.
+ *
+ * Queries use an immutable snapshot: the highlightings sorted by start
+ * position, seen as an implicit balanced search tree (the root of a range
+ * is its middle item) where each node keeps the maximal end position of its
+ * subtree. A snapshot is built on the first query after a change, so a
+ * query costs O(log n + k) for k found highlightings.
+ */
+final class ZLTextHighlightingSet {
+	private static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(new ZLTextHighlighting[0]);
+
+		final ZLTextHighlighting[] Items;
+		final ZLTextPosition[] MaxEnds;
+
+		Snapshot(ZLTextHighlighting[] items) {
+			Items = items;
+			MaxEnds = new ZLTextPosition[items.length];
+			build(0, items.length);
+		}
+
+		private ZLTextPosition build(int low, int high) {
+			if (low >= high) {
+				return null;
+			}
+			final int middle = (low + high) >>> 1;
+			ZLTextPosition max = Items[middle].getEndPosition();
+			max = max(max, build(low, middle));
+			max = max(max, build(middle + 1, high));
+			MaxEnds[middle] = max;
+			return max;
+		}
+
+		private static ZLTextPosition max(ZLTextPosition p0, ZLTextPosition p1) {
+			if (p0 == null) {
+				return p1;
+			}
+			if (p1 == null) {
+				return p0;
+			}
+			return p0.compareTo(p1) >= 0 ? p0 : p1;
+		}
+
+		/**
+		 * Adds, in sorted order, the highlightings with start <= to and end >= from.
+		 */
+		void collect(int low, int high, ZLTextPosition from, ZLTextPosition to, List<ZLTextHighlighting> result) {
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (MaxEnds[middle].compareTo(from) < 0) {
+					return;
+				}
+				collect(low, middle, from, to, result);
+				final ZLTextHighlighting h = Items[middle];
+				if (h.getStartPosition().compareTo(to) > 0) {
+					return;
+				}
+				if (h.getEndPosition().compareTo(from) >= 0) {
+					result.add(h);
+				}
+				low = middle + 1;
+			}
+		}
+	}
+
+	private final TreeSet<ZLTextHighlighting> myHighlightings = new TreeSet<ZLTextHighlighting>();
+	// null after a change; rebuilt by the next query
+	private volatile Snapshot mySnapshot = Snapshot.EMPTY;
+
+	synchronized void clear() {
+		myHighlightings.clear();
+		mySnapshot = Snapshot.EMPTY;
+	}
+
+	synchronized boolean add(ZLTextHighlighting h) {
+		if (!myHighlightings.add(h)) {
+			return false;
+		}
+		mySnapshot = null;
+		return true;
+	}
+
+	synchronized boolean addAll(Collection<ZLTextHighlighting> highlightings) {
+		if (!myHighlightings.addAll(highlightings)) {
+			return false;
+		}
+		mySnapshot = null;
+		return true;
+	}
+
+	synchronized boolean removeAll(Class<? extends ZLTextHighlighting> type) {
+		boolean result = false;
+		for (Iterator<ZLTextHighlighting> it = myHighlightings.iterator(); it.hasNext(); ) {
+			if (type.isInstance(it.next())) {
+				it.remove();
+				result = true;
+			}
+		}
+		if (result) {
+			mySnapshot = null;
+		}
+		return result;
+	}
+
+	private Snapshot snapshot() {
+		Snapshot snapshot = mySnapshot;
+		if (snapshot == null) {
+			synchronized (this) {
+				snapshot = mySnapshot;
+				if (snapshot == null) {
+					snapshot = new Snapshot(
+						myHighlightings.toArray(new ZLTextHighlighting[myHighlightings.size()])
+					);
+					mySnapshot = snapshot;
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Adds the highlightings intersecting the page to the list, in sorted order.
+	 */
+	void collect(ZLTextPage page, List<ZLTextHighlighting> result) {
+		if (page.StartCursor.isNull() || page.EndCursor.isNull()) {
+			return;
+		}
+		final Snapshot snapshot = snapshot();
+		final int size = result.size();
+		snapshot.collect(0, snapshot.Items.length, page.StartCursor, page.EndCursor, result);
+		for (ListIterator<ZLTextHighlighting> it = result.listIterator(size); it.hasNext(); ) {
+			if (!it.next().intersects(page)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Adds the highlightings intersecting the region to the list, in sorted order.
+	 */
+	void collect(ZLTextRegion region, List<ZLTextHighlighting> result) {
+		final ZLTextRegion.Soul soul = region.getSoul();
+		final Snapshot snapshot = snapshot();
+		final int size = result.size();
+		snapshot.collect(
+			0, snapshot.Items.length,
+			new ZLTextFixedPosition(soul.ParagraphIndex, soul.StartElementIndex, 0),
+			new ZLTextFixedPosition(soul.ParagraphIndex, soul.EndElementIndex, Integer.MAX_VALUE),
+			result
+		);
+		for (ListIterator<ZLTextHighlighting> it = result.listIterator(size); it.hasNext(); ) {
+			if (!it.next().intersects(region)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Finds highlightings of words drawn in text order.
+	 *
+	 * Positions passed to find() must not decrease, so every highlighting
+	 * is started and finished once per page.
+	 */
+	static final class WordLookup {
+		private final ZLTextHighlighting myFirst;
+		private final List<ZLTextHighlighting> myHighlightings;
+		private final ArrayDeque<ZLTextHighlighting> myActive = new ArrayDeque<ZLTextHighlighting>();
+		private int myNextIndex;
+
+		/**
+		 * @param first highlighting that is checked before all the others, or null
+		 * @param highlightings highlightings sorted by start position
+		 */
+		WordLookup(ZLTextHighlighting first, List<ZLTextHighlighting> highlightings) {
+			myFirst = first;
+			myHighlightings = highlightings;
+		}
+
+		ZLTextHighlighting find(ZLTextPosition pos) {
+			if (myFirst != null && contains(myFirst, pos)) {
+				return myFirst;
+			}
+			while (myNextIndex < myHighlightings.size()) {
+				final ZLTextHighlighting h = myHighlightings.get(myNextIndex);
+				if (h.getStartPosition().compareToIgnoreChar(pos) > 0) {
+					break;
+				}
+				myActive.addLast(h);
+				++myNextIndex;
+			}
+			// the earliest started highlighting wins; finished ones are dropped for good
+			while (!myActive.isEmpty()) {
+				final ZLTextHighlighting h = myActive.peekFirst();
+				if (pos.compareToIgnoreChar(h.getEndPosition()) <= 0) {
+					return h;
+				}
+				myActive.removeFirst();
+			}
+			return null;
+		}
+
+		private static boolean contains(ZLTextHighlighting h, ZLTextPosition pos) {
+			return
+				h.getStartPosition().compareToIgnoreChar(pos) <= 0 &&
+				pos.compareToIgnoreChar(h.getEndPosition()) <= 0;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/**
+ * Persistent cache of complete page-break tables, one file per table.
+ *
+ * A table is stored under the key of its pagination, which describes
+ * the book, the text model and everything that affects the layout;
+ * the full key is kept in the file, so hash collisions of file names
+ * are detected. Least recently used files are removed when the total
+ * size of the cache exceeds the limit.
+ */
+final class ZLTextLayoutCache {
+	private static final int FORMAT_VERSION = 1;
+	private static final String FILE_EXTENSION = ".pages";
+
+	private final File myRoot;
+	private final long myMaxSize;
+
+	ZLTextLayoutCache(String rootDirectory, long maxSize) {
+		myRoot = new File(rootDirectory);
+		myMaxSize = maxSize;
+	}
+
+	private File file(String key) {
+		return new File(myRoot, Integer.toHexString(key.hashCode()) + FILE_EXTENSION);
+	}
+
+	/**
+	 * @return page start paragraphs, elements and chars stored for the key,
+	 * or null if there is no table for the key and the model
+	 */
+	int[][] read(String key, ZLTextModel model) {
+		final File file = file(key);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream stream = null;
+		try {
+			stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (stream.readInt() != FORMAT_VERSION || !key.equals(stream.readUTF())) {
+				return null;
+			}
+			final int paragraphsNumber = stream.readInt();
+			final int textLength = stream.readInt();
+			if (paragraphsNumber != model.getParagraphsNumber() ||
+				textLength != model.getTextLength(paragraphsNumber - 1)) {
+				return null;
+			}
+			final int size = stream.readInt();
+			final int[] paragraphs = new int[size];
+			final int[] elements = new int[size];
+			final int[] chars = new int[size];
+			for (int i = 0; i < size; ++i) {
+				paragraphs[i] = stream.readInt();
+				elements[i] = stream.readInt();
+				chars[i] = stream.readInt();
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return new int[][] { paragraphs, elements, chars };
+		} catch (IOException e) {
+			file.delete();
+			return null;
+		} finally {
+			close(stream);
+		}
+	}
+
+	void write(String key, ZLTextPagination pagination) {
+		myRoot.mkdirs();
+		final File file = file(key);
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final ZLTextModel model = pagination.Model;
+		final int paragraphsNumber = model.getParagraphsNumber();
+		DataOutputStream stream = null;
+		try {
+			stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			stream.writeInt(FORMAT_VERSION);
+			stream.writeUTF(key);
+			stream.writeInt(paragraphsNumber);
+			stream.writeInt(model.getTextLength(paragraphsNumber - 1));
+			final int size = pagination.size();
+			stream.writeInt(size);
+			for (int i = 0; i < size; ++i) {
+				final ZLTextPosition start = pagination.getPageStart(i);
+				stream.writeInt(start.getParagraphIndex());
+				stream.writeInt(start.getElementIndex());
+				stream.writeInt(start.getCharIndex());
+			}
+			stream.close();
+			stream = null;
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+			}
+		} catch (IOException e) {
+			tmpFile.delete();
+		} finally {
+			close(stream);
+		}
+		trim(file);
+	}
+
+	private void trim(File fileToKeep) {
+		final File[] files = myRoot.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f0, File f1) {
+				final long diff = f1.lastModified() - f0.lastModified();
+				return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+			}
+		});
+		long size = 0;
+		for (File f : files) {
+			if (!f.getName().endsWith(FILE_EXTENSION)) {
+				continue;
+			}
+			size += f.length();
+			if (size > myMaxSize && !f.equals(fileToKeep)) {
+				f.delete();
+			}
+		}
+	}
+
+	private static void close(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -34,10 +34,11 @@ final class ZLTextLineInfo {
 	int LeftIndent;
 	int Width;
 	int Height;
+	// height without the space before the paragraph
+	int ContentHeight;
 	int Descent;
 	int VSpaceBefore;
 	int VSpaceAfter;
-	boolean PreviousInfoUsed;
 	int SpaceCounter;
 	ZLTextStyle StartStyle;
 
@@ -59,11 +60,16 @@ final class ZLTextLineInfo {
 		return EndElementIndex == ParagraphCursorLength;
 	}
 
+	/**
+	 * Sets the height for the given line above (null at the top of a page);
+	 * the space before collapses with the space after the line above.
+	 * A cached line is shared by the pages it is laid out on, so the height
+	 * is recomputed on every call and does not depend on the earlier ones.
+	 */
 	void adjust(ZLTextLineInfo previous) {
-		if (!PreviousInfoUsed && previous != null) {
-			Height -= Math.min(previous.VSpaceAfter, VSpaceBefore);
-			PreviousInfoUsed = true;
-		}
+		Height = ContentHeight + (previous != null
+			? Math.max(0, VSpaceBefore - previous.VSpaceAfter)
+			: VSpaceBefore);
 	}
 
 	@Override
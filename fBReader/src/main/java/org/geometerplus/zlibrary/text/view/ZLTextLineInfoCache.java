@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of laid out lines.
+ *
+ * A line is identified by its paragraph cursor, start position and
+ * text width; the style at the line start is the same for all of them,
+ * since a paragraph is always laid out from its start with the base style.
+ * A rebuilt paragraph gets a new cursor, so its old lines are never found.
+ * Changes of the base style must clear the cache.
+ *
+ * Lines hold their paragraph cursors, so lines of a cursor removed from
+ * the cursor cache are dropped too: the cursor cache reports removed cursors
+ * from any thread, and their lines are removed on the next access or purge().
+ */
+final class ZLTextLineInfoCache {
+	private static final class Key {
+		private ZLTextParagraphCursor myCursor;
+		private int myElementIndex;
+		private int myCharIndex;
+		private int myWidth;
+
+		Key set(ZLTextParagraphCursor cursor, int elementIndex, int charIndex, int width) {
+			myCursor = cursor;
+			myElementIndex = elementIndex;
+			myCharIndex = charIndex;
+			myWidth = width;
+			return this;
+		}
+
+		Key copy() {
+			return new Key().set(myCursor, myElementIndex, myCharIndex, myWidth);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			return
+				myCursor == key.myCursor &&
+				myElementIndex == key.myElementIndex &&
+				myCharIndex == key.myCharIndex &&
+				myWidth == key.myWidth;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(myCursor) + myElementIndex + 239 * myCharIndex + 7919 * myWidth;
+		}
+	}
+
+	private final LinkedHashMap<Key,ZLTextLineInfo> myInfos;
+	private final Key myProbe = new Key();
+	// cursors removed from the cursor cache, whose lines are not dropped yet
+	private final HashSet<ZLTextParagraphCursor> myRemovedCursors = new HashSet<ZLTextParagraphCursor>();
+
+	ZLTextLineInfoCache(final int maxSize) {
+		myInfos = new LinkedHashMap<Key,ZLTextLineInfo>(256, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,ZLTextLineInfo> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	synchronized ZLTextLineInfo get(ZLTextParagraphCursor cursor, int elementIndex, int charIndex, int width) {
+		purge();
+		return myInfos.get(myProbe.set(cursor, elementIndex, charIndex, width));
+	}
+
+	synchronized void put(ZLTextLineInfo info, int width) {
+		purge();
+		myInfos.put(
+			myProbe.set(info.ParagraphCursor, info.StartElementIndex, info.StartCharIndex, width).copy(),
+			info
+		);
+	}
+
+	synchronized void clear() {
+		myInfos.clear();
+		myRemovedCursors.clear();
+	}
+
+	/**
+	 * Marks the lines of the cursor to be dropped.
+	 */
+	synchronized void removeCursor(ZLTextParagraphCursor cursor) {
+		myRemovedCursors.add(cursor);
+	}
+
+	/**
+	 * Drops the lines of the removed cursors.
+	 */
+	synchronized void purge() {
+		if (myRemovedCursors.isEmpty()) {
+			return;
+		}
+		for (Iterator<Key> it = myInfos.keySet().iterator(); it.hasNext(); ) {
+			if (myRemovedCursors.contains(it.next().myCursor)) {
+				it.remove();
+			}
+		}
+		myRemovedCursors.clear();
+	}
+}
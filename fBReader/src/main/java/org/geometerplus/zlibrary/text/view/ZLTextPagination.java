@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import org.geometerplus.zlibrary.text.model.ZLTextModel;
+
+/**
+ * Page-break table of a text model for a fixed text area geometry:
+ * start positions of the pages a reader gets by turning pages forward
+ * from the start of the text. The table is filled in background, a few
+ * pages at a time, by the same line layout the view uses for painting.
+ *
+ * All the methods except cancel() are called under the view lock.
+ */
+final class ZLTextPagination {
+	private static class MinPriorityThreadFactory implements ThreadFactory {
+		private final ThreadFactory myDefaultThreadFactory = Executors.defaultThreadFactory();
+
+		public Thread newThread(Runnable r) {
+			final Thread th = myDefaultThreadFactory.newThread(r);
+			th.setPriority(Thread.MIN_PRIORITY);
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+	private static final ScheduledExecutorService ourLayoutService =
+		Executors.newSingleThreadScheduledExecutor(new MinPriorityThreadFactory());
+	// pause between slices, so that the view lock is free most of the time
+	private static final long SLICE_DELAY = 20;
+
+	final ZLTextModel Model;
+	final int ColumnWidth;
+	final int Height;
+	final boolean TwoColumnView;
+	// key in the layout cache, or null if the table must not be stored
+	final String CacheKey;
+
+	// page i starts at (myParagraphs[i], myElements[i], myChars[i])
+	private int[] myParagraphs = new int[64];
+	private int[] myElements = new int[64];
+	private int[] myChars = new int[64];
+	private int mySize;
+	private boolean myIsComplete;
+	private volatile boolean myIsCancelled;
+
+	// layout state; start of the next page to build
+	final ZLTextPage Page = new ZLTextPage();
+	final ZLTextWordCursor Cursor;
+	// lines of a pagination slice; used instead of the view's line cache
+	final ZLTextLineInfoCache LineInfoCache = new ZLTextLineInfoCache(256);
+
+	ZLTextPagination(ZLTextModel model, ExtensionElementManager extensionManager, int columnWidth, int height, boolean twoColumnView, String cacheKey) {
+		Model = model;
+		ColumnWidth = columnWidth;
+		Height = height;
+		TwoColumnView = twoColumnView;
+		CacheKey = cacheKey;
+		Page.setSize(columnWidth, height, twoColumnView, false);
+		// own cursor cache, so the layout does not evict cursors of the visible pages
+		Cursor = new ZLTextWordCursor(new CursorManager(model, extensionManager, LineInfoCache).get(0));
+		addPage(Cursor);
+	}
+
+	boolean matches(ZLTextModel model, int columnWidth, int height, boolean twoColumnView) {
+		return
+			Model == model &&
+			ColumnWidth == columnWidth &&
+			Height == height &&
+			TwoColumnView == twoColumnView;
+	}
+
+	/**
+	 * Starts filling the table in background; a table stored in the cache
+	 * is used instead of the layout, and a complete table is stored.
+	 */
+	void start(final ZLTextView view, final ZLTextLayoutCache cache) {
+		ourLayoutService.execute(new Runnable() {
+			private boolean myCacheIsChecked = cache == null || CacheKey == null;
+
+			public void run() {
+				if (myIsCancelled) {
+					return;
+				}
+				if (!myCacheIsChecked) {
+					myCacheIsChecked = true;
+					final int[][] table = cache.read(CacheKey, Model);
+					if (table != null && view.restorePagination(ZLTextPagination.this, table)) {
+						return;
+					}
+				}
+				// one slice per task, so that several paginations share the thread;
+				// the slice holds the view lock, so it runs with normal priority
+				// to avoid being preempted by other background work meanwhile
+				final Thread thread = Thread.currentThread();
+				final boolean hasMorePages;
+				thread.setPriority(Thread.NORM_PRIORITY);
+				try {
+					hasMorePages = view.paginate(ZLTextPagination.this);
+				} finally {
+					thread.setPriority(Thread.MIN_PRIORITY);
+				}
+				if (hasMorePages) {
+					ourLayoutService.schedule(this, SLICE_DELAY, TimeUnit.MILLISECONDS);
+				} else if (myIsComplete && !myIsCancelled && cache != null && CacheKey != null) {
+					// the table does not change after completion
+					cache.write(CacheKey, ZLTextPagination.this);
+				}
+			}
+		});
+	}
+
+	void cancel() {
+		myIsCancelled = true;
+	}
+
+	/**
+	 * @param pageStart start position of the next page; a paragraph end
+	 * position is stored as the start of the next paragraph
+	 */
+	void addPage(ZLTextWordCursor pageStart) {
+		final ZLTextPosition position = normalize(pageStart);
+		if (mySize == myParagraphs.length) {
+			final int capacity = 2 * mySize;
+			myParagraphs = Arrays.copyOf(myParagraphs, capacity);
+			myElements = Arrays.copyOf(myElements, capacity);
+			myChars = Arrays.copyOf(myChars, capacity);
+		}
+		myParagraphs[mySize] = position.getParagraphIndex();
+		myElements[mySize] = position.getElementIndex();
+		myChars[mySize] = position.getCharIndex();
+		++mySize;
+	}
+
+	void restore(int[] paragraphs, int[] elements, int[] chars) {
+		myParagraphs = paragraphs;
+		myElements = elements;
+		myChars = chars;
+		mySize = paragraphs.length;
+		myIsComplete = true;
+	}
+
+	void setComplete() {
+		myIsComplete = true;
+	}
+
+	boolean isComplete() {
+		return myIsComplete;
+	}
+
+	/**
+	 * @return number of known pages
+	 */
+	int size() {
+		return mySize;
+	}
+
+	ZLTextFixedPosition getPageStart(int pageIndex) {
+		return new ZLTextFixedPosition(myParagraphs[pageIndex], myElements[pageIndex], myChars[pageIndex]);
+	}
+
+	// the end of a paragraph and the start of the next one are the same place
+	private ZLTextPosition normalize(ZLTextWordCursor cursor) {
+		final int paragraph = cursor.getParagraphIndex();
+		if (cursor.isEndOfParagraph() && paragraph + 1 < Model.getParagraphsNumber()) {
+			return new ZLTextFixedPosition(paragraph + 1, 0, 0);
+		}
+		return cursor;
+	}
+
+	/**
+	 * @return index of the last known page that starts at or before the cursor;
+	 * the result is exact only if isExact() is true for the cursor
+	 */
+	int findPage(ZLTextWordCursor cursor) {
+		final ZLTextPosition position = normalize(cursor);
+		final int paragraph = position.getParagraphIndex();
+		final int element = position.getElementIndex();
+		final int charIndex = position.getCharIndex();
+		int low = 0;
+		int high = mySize;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (compare(middle, paragraph, element, charIndex) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return Math.max(low - 1, 0);
+	}
+
+	/**
+	 * @return true if the cursor lies before the start of the last known page,
+	 * i.e., on a page with known bounds
+	 */
+	boolean isExact(ZLTextWordCursor cursor) {
+		if (myIsComplete) {
+			return true;
+		}
+		final ZLTextPosition position = normalize(cursor);
+		return compare(mySize - 1, position.getParagraphIndex(), position.getElementIndex(), position.getCharIndex()) > 0;
+	}
+
+	private int compare(int pageIndex, int paragraph, int element, int charIndex) {
+		if (myParagraphs[pageIndex] != paragraph) {
+			return myParagraphs[pageIndex] < paragraph ? -1 : 1;
+		}
+		if (myElements[pageIndex] != element) {
+			return myElements[pageIndex] < element ? -1 : 1;
+		}
+		return myChars[pageIndex] - charIndex;
+	}
+
+	/**
+	 * @return text size before the paragraph of the last known page start
+	 */
+	int knownTextSize() {
+		return Model.getTextLength(myParagraphs[mySize - 1] - 1);
+	}
+
+	/**
+	 * @return average number of chars per known page, or 0 if it is unknown yet
+	 */
+	float charsPerPage() {
+		if (mySize < 2) {
+			return 0;
+		}
+		return ((float)knownTextSize()) / (mySize - 1);
+	}
+}
@@ -24,6 +24,7 @@ import java.util.*;
 import org.vimgadgets.linebreak.LineBreaker;
 
 import org.geometerplus.zlibrary.core.image.*;
+import org.geometerplus.zlibrary.core.view.ZLPaintContext;
 import org.geometerplus.zlibrary.core.resources.ZLResource;
 import org.geometerplus.zlibrary.text.model.*;
 
@@ -32,28 +33,20 @@ public final class ZLTextParagraphCursor {
 		private final ZLTextParagraph myParagraph;
 		private final ExtensionElementManager myExtManager;
 		private final LineBreaker myLineBreaker;
-		private final ArrayList<ZLTextElement> myElements;
+		private final ZLTextParagraphCursor myCursor;
 		private int myOffset;
-		private int myFirstMark;
-		private int myLastMark;
-		private final List<ZLTextMark> myMarks;
+		private final int myFirstMark;
+		private final int myLastMark;
+		private final ZLTextMarkStore myMarks;
 
-		private Processor(ZLTextParagraph paragraph, ExtensionElementManager extManager, LineBreaker lineBreaker, List<ZLTextMark> marks, int paragraphIndex, ArrayList<ZLTextElement> elements) {
+		private Processor(ZLTextParagraph paragraph, ExtensionElementManager extManager, LineBreaker lineBreaker, ZLTextMarkStore marks, int paragraphIndex, ZLTextParagraphCursor cursor) {
 			myExtManager = extManager;
 			myParagraph = paragraph;
 			myLineBreaker = lineBreaker;
-			myElements = elements;
+			myCursor = cursor;
 			myMarks = marks;
-			final ZLTextMark mark = new ZLTextMark(paragraphIndex, 0, 0);
-			int i;
-			for (i = 0; i < myMarks.size(); i++) {
-				if (((ZLTextMark)myMarks.get(i)).compareTo(mark) >= 0) {
-					break;
-				}
-			}
-			myFirstMark = i;
-			myLastMark = myFirstMark;
-			for (; myLastMark != myMarks.size() && ((ZLTextMark)myMarks.get(myLastMark)).ParagraphIndex == paragraphIndex; myLastMark++);
+			myFirstMark = marks.paragraphStart(paragraphIndex);
+			myLastMark = marks.paragraphStart(paragraphIndex + 1);
 			myOffset = 0;
 		}
 
@@ -61,11 +54,20 @@ public final class ZLTextParagraphCursor {
 			int hyperlinkDepth = 0;
 			ZLTextHyperlink hyperlink = null;
 
-			final ArrayList<ZLTextElement> elements = myElements;
+			final ZLTextParagraphCursor elements = myCursor;
 			for (ZLTextParagraph.EntryIterator it = myParagraph.iterator(); it.next(); ) {
 				switch (it.getType()) {
 					case ZLTextParagraph.Entry.TEXT:
-						processTextEntry(it.getTextData(), it.getTextOffset(), it.getTextLength(), hyperlink);
+						if (it.isTextDataTemporary()) {
+							// words keep the text data
+							final int offset = it.getTextOffset();
+							final int length = it.getTextLength();
+							processTextEntry(
+								Arrays.copyOfRange(it.getTextData(), offset, offset + length), 0, length, hyperlink
+							);
+						} else {
+							processTextEntry(it.getTextData(), it.getTextOffset(), it.getTextLength(), hyperlink);
+						}
 						break;
 					case ZLTextParagraph.Entry.CONTROL:
 						if (hyperlink != null) {
@@ -97,7 +99,7 @@ public final class ZLTextParagraphCursor {
 							ZLImageData data = ZLImageManager.Instance().getImageData(image);
 							if (data != null) {
 								if (hyperlink != null) {
-									hyperlink.addElementIndex(elements.size());
+									hyperlink.addElementIndex(elements.getParagraphLength());
 								}
 								elements.add(new ZLTextImageElement(imageEntry.Id, data, image.getURI(), imageEntry.IsCover));
 							}
@@ -110,7 +112,9 @@ public final class ZLTextParagraphCursor {
 						break;
 					case ZLTextParagraph.Entry.EXTENSION:
 						if (myExtManager != null) {
-							elements.addAll(myExtManager.getElements(it.getExtensionEntry()));
+							for (ExtensionElement element : myExtManager.getElements(it.getExtensionEntry())) {
+								elements.add(element);
+							}
 						}
 						break;
 					case ZLTextParagraph.Entry.STYLE_CSS:
@@ -127,21 +131,28 @@ public final class ZLTextParagraphCursor {
 			}
 		}
 
-		private static byte[] ourBreaks = new byte[1024];
+		// cursors are built by several threads, so each thread uses its own buffer
+		private static final ThreadLocal<byte[]> ourBreaks = new ThreadLocal<byte[]>() {
+			@Override
+			protected byte[] initialValue() {
+				return new byte[1024];
+			}
+		};
 		private static final int NO_SPACE = 0;
 		private static final int SPACE = 1;
 		private static final int NON_BREAKABLE_SPACE = 2;
 		private void processTextEntry(final char[] data, final int offset, final int length, ZLTextHyperlink hyperlink) {
 			if (length != 0) {
-				if (ourBreaks.length < length) {
-					ourBreaks = new byte[length];
+				byte[] breaks = ourBreaks.get();
+				if (breaks.length < length) {
+					breaks = new byte[length];
+					ourBreaks.set(breaks);
 				}
-				final byte[] breaks = ourBreaks;
 				myLineBreaker.setLineBreaks(data, offset, length, breaks);
 
 				final ZLTextElement hSpace = ZLTextElement.HSpace;
 				final ZLTextElement nbSpace = ZLTextElement.NBSpace;
-				final ArrayList<ZLTextElement> elements = myElements;
+				final ZLTextParagraphCursor elements = myCursor;
 				char ch = 0;
 				char previousChar = 0;
 				int spaceState = NO_SPACE;
@@ -202,24 +213,48 @@ public final class ZLTextParagraphCursor {
 		}
 
 		private final void addWord(char[] data, int offset, int len, int paragraphOffset, ZLTextHyperlink hyperlink) {
-			ZLTextWord word = new ZLTextWord(data, offset, len, paragraphOffset);
+			ZLTextWord word = null;
 			for (int i = myFirstMark; i < myLastMark; ++i) {
-				final ZLTextMark mark = (ZLTextMark)myMarks.get(i);
-				if ((mark.Offset < paragraphOffset + len) && (mark.Offset + mark.Length > paragraphOffset)) {
-					word.addMark(mark.Offset - paragraphOffset, mark.Length);
+				final int markOffset = myMarks.getOffset(i);
+				final int markLength = myMarks.getLength(i);
+				if ((markOffset < paragraphOffset + len) && (markOffset + markLength > paragraphOffset)) {
+					if (word == null) {
+						word = new ZLTextWord(data, offset, len, paragraphOffset);
+					}
+					word.addMark(markOffset - paragraphOffset, markLength);
 				}
 			}
 			if (hyperlink != null) {
-				hyperlink.addElementIndex(myElements.size());
+				hyperlink.addElementIndex(myCursor.getParagraphLength());
+			}
+			if (word != null) {
+				myCursor.add(word);
+			} else {
+				myCursor.addWord(data, offset, len, paragraphOffset);
 			}
-			myElements.add(word);
 		}
 	}
 
 	public final int Index;
 	final CursorManager CursorManager;
 	public final ZLTextModel Model;
-	private final ArrayList<ZLTextElement> myElements = new ArrayList<ZLTextElement>();
+	// weight in the cursor cache; not changed by rebuilding, so that
+	// the cache size stays consistent
+	final int Weight;
+
+	// Elements are stored in parallel arrays. A plain word is kept as a range
+	// of the text data (myObjects[i] == null); all the other elements, words
+	// with marks or soft hyphens among them, are kept as objects. Spaces and
+	// controls are shared singletons, so most of paragraphs need no objects
+	// of their own; ZLTextWord objects are made on demand by getElement().
+	private int mySize;
+	private ZLTextElement[] myObjects = new ZLTextElement[16];
+	private char[][] myWordData = new char[16][];
+	private int[] myWordOffsets = new int[16];
+	private int[] myWordLengths = new int[16];
+	private int[] myParagraphOffsets = new int[16];
+	// measured widths of whole words; values <= 1 mean 'not measured yet'
+	private int[] myWidths = new int[16];
 
 	public ZLTextParagraphCursor(ZLTextModel model, int index) {
 		this(new CursorManager(model, null), model, index);
@@ -230,6 +265,7 @@ public final class ZLTextParagraphCursor {
 		Model = model;
 		Index = Math.min(index, model.getParagraphsNumber() - 1);
 		fill();
+		Weight = Math.max(1, mySize);
 	}
 
 	private static final char[] SPACE_ARRAY = { ' ' };
@@ -237,26 +273,71 @@ public final class ZLTextParagraphCursor {
 		ZLTextParagraph	paragraph = Model.getParagraph(Index);
 		switch (paragraph.getKind()) {
 			case ZLTextParagraph.Kind.TEXT_PARAGRAPH:
-				new Processor(paragraph, CursorManager.ExtensionManager, new LineBreaker(Model.getLanguage()), Model.getMarks(), Index, myElements).fill();
+				new Processor(paragraph, CursorManager.ExtensionManager, new LineBreaker(Model.getLanguage()), Model.getMarkStore(), Index, this).fill();
 				break;
 			case ZLTextParagraph.Kind.EMPTY_LINE_PARAGRAPH:
-				myElements.add(new ZLTextWord(SPACE_ARRAY, 0, 1, 0));
+				addWord(SPACE_ARRAY, 0, 1, 0);
 				break;
 			case ZLTextParagraph.Kind.ENCRYPTED_SECTION_PARAGRAPH:
 			{
 				final ZLTextStyleEntry entry = new ZLTextOtherStyleEntry();
 				entry.setFontModifier(ZLTextStyleEntry.FontModifier.FONT_MODIFIER_BOLD, true);
-				myElements.add(new ZLTextStyleElement(entry));
-				myElements.add(new ZLTextWord(ZLResource.resource("drm").getResource("encryptedSection").getValue(), 0));
+				add(new ZLTextStyleElement(entry));
+				add(new ZLTextWord(ZLResource.resource("drm").getResource("encryptedSection").getValue(), 0));
 				break;
 			}
 			default:
 				break;
 		}
+		trimToSize();
 	}
 
 	void clear() {
-		myElements.clear();
+		mySize = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > myObjects.length) {
+			capacity = Math.max(capacity, 2 * myObjects.length);
+			myObjects = Arrays.copyOf(myObjects, capacity);
+			myWordData = Arrays.copyOf(myWordData, capacity);
+			myWordOffsets = Arrays.copyOf(myWordOffsets, capacity);
+			myWordLengths = Arrays.copyOf(myWordLengths, capacity);
+			myParagraphOffsets = Arrays.copyOf(myParagraphOffsets, capacity);
+			myWidths = Arrays.copyOf(myWidths, capacity);
+		}
+	}
+
+	private void trimToSize() {
+		if (mySize < myObjects.length) {
+			myObjects = Arrays.copyOf(myObjects, mySize);
+			myWordData = Arrays.copyOf(myWordData, mySize);
+			myWordOffsets = Arrays.copyOf(myWordOffsets, mySize);
+			myWordLengths = Arrays.copyOf(myWordLengths, mySize);
+			myParagraphOffsets = Arrays.copyOf(myParagraphOffsets, mySize);
+			myWidths = Arrays.copyOf(myWidths, mySize);
+		}
+	}
+
+	private void add(ZLTextElement element) {
+		ensureCapacity(mySize + 1);
+		myObjects[mySize++] = element;
+	}
+
+	private void addWord(char[] data, int offset, int length, int paragraphOffset) {
+		for (int i = offset; i < offset + length; ++i) {
+			if (data[i] == (char)0xAD) {
+				// soft hyphens need the printable copy made by ZLTextWord
+				add(new ZLTextWord(data, offset, length, paragraphOffset));
+				return;
+			}
+		}
+		ensureCapacity(mySize + 1);
+		myWordData[mySize] = data;
+		myWordOffsets[mySize] = offset;
+		myWordLengths[mySize] = length;
+		myParagraphOffsets[mySize] = paragraphOffset;
+		++mySize;
 	}
 
 	public boolean isFirst() {
@@ -282,7 +363,7 @@ public final class ZLTextParagraphCursor {
 	}
 
 	int getParagraphLength() {
-		return myElements.size();
+		return mySize;
 	}
 
 	public ZLTextParagraphCursor previous() {
@@ -293,12 +374,69 @@ public final class ZLTextParagraphCursor {
 		return isLast() ? null : CursorManager.get(Index + 1);
 	}
 
+	/**
+	 * @return the element; a word is created on each call unless it is stored
+	 * as an object, so the layout code uses isWord() and getWordWidth() instead
+	 */
 	ZLTextElement getElement(int index) {
-		try {
-			return myElements.get(index);
-		} catch (IndexOutOfBoundsException e) {
+		if (index < 0 || index >= mySize) {
 			return null;
 		}
+		final ZLTextElement element = myObjects[index];
+		if (element != null) {
+			return element;
+		}
+		return new ZLTextWord(
+			myWordData[index], myWordOffsets[index], myWordLengths[index],
+			myParagraphOffsets[index], myWidths[index]
+		);
+	}
+
+	ZLTextWord getWord(int index) {
+		return (ZLTextWord)getElement(index);
+	}
+
+	/**
+	 * @return true if the element is a word, without creating the word
+	 */
+	boolean isWord(int index) {
+		if (index < 0 || index >= mySize) {
+			return false;
+		}
+		final ZLTextElement element = myObjects[index];
+		return element == null || element instanceof ZLTextWord;
+	}
+
+	/**
+	 * @return length of the word, or 0 if the element is not a word
+	 */
+	int getWordLength(int index) {
+		if (!isWord(index)) {
+			return 0;
+		}
+		final ZLTextElement element = myObjects[index];
+		return element != null ? ((ZLTextWord)element).Length : myWordLengths[index];
+	}
+
+	int getWordParagraphOffset(int index) {
+		final ZLTextElement element = myObjects[index];
+		return element != null ? ((ZLTextWord)element).getParagraphOffset() : myParagraphOffsets[index];
+	}
+
+	/**
+	 * @return width of the whole word; measured once, like ZLTextWord.getWidth()
+	 */
+	int getWordWidth(int index, ZLPaintContext context) {
+		final ZLTextElement element = myObjects[index];
+		if (element != null) {
+			return ((ZLTextWord)element).getWidth(context);
+		}
+		int width = myWidths[index];
+		if (width <= 1) {
+			width = context.getStringWidth(myWordData[index], myWordOffsets[index], myWordLengths[index]);
+			myWidths[index] = width;
+		}
+		return width;
 	}
 
 	ZLTextParagraph getParagraph() {
@@ -307,6 +445,6 @@ public final class ZLTextParagraphCursor {
 
 	@Override
 	public String toString() {
-		return "ZLTextParagraphCursor [" + Index + " (0.." + myElements.size() + ")]";
+		return "ZLTextParagraphCursor [" + Index + " (0.." + mySize + ")]";
 	}
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Budget and statistics of the paragraph cursor caches.
+ *
+ * Each text view (and each background pagination) has its own cursor cache;
+ * the caches are weighed by the number of paragraph elements, and the budget
+ * set here limits their total size: before a cursor is stored, the largest
+ * caches are trimmed to make room for it. Statistics are summed over
+ * the live caches.
+ */
+public final class ZLTextParagraphCursorCache {
+	private static final ZLTextParagraphCursorCache ourInstance = new ZLTextParagraphCursorCache();
+
+	public static ZLTextParagraphCursorCache Instance() {
+		return ourInstance;
+	}
+
+	private final WeakHashMap<CursorManager,Boolean> myManagers = new WeakHashMap<CursorManager,Boolean>();
+	private int myBudget = 64 * 1024;
+
+	private ZLTextParagraphCursorCache() {
+	}
+
+	synchronized void register(CursorManager manager) {
+		myManagers.put(manager, Boolean.TRUE);
+	}
+
+	private synchronized ArrayList<CursorManager> managers() {
+		return new ArrayList<CursorManager>(myManagers.keySet());
+	}
+
+	/**
+	 * @param elements max total number of paragraph elements in all the cursor caches
+	 */
+	public void setBudget(int elements) {
+		synchronized (this) {
+			myBudget = Math.max(1, elements);
+		}
+		final ArrayList<CursorManager> managers = managers();
+		for (CursorManager manager : managers) {
+			manager.resize(budget());
+		}
+		shrink(managers, budget());
+	}
+
+	public synchronized int budget() {
+		return myBudget;
+	}
+
+	/**
+	 * Trims the caches so that a cursor of the given weight fits in the budget.
+	 */
+	void reserve(int weight) {
+		shrink(managers(), budget() - weight);
+	}
+
+	/**
+	 * Shrinks the caches to the given total size without changing the budget;
+	 * the caches grow back as cursors are requested again.
+	 */
+	public void trimToSize(int elements) {
+		final ArrayList<CursorManager> managers = managers();
+		shrink(managers, elements);
+		for (CursorManager manager : managers) {
+			manager.purgeLines();
+		}
+	}
+
+	// trims the largest caches until the total size is not above the limit
+	private static void shrink(ArrayList<CursorManager> managers, int limit) {
+		int excess = size(managers) - Math.max(0, limit);
+		while (excess > 0) {
+			CursorManager largest = null;
+			for (CursorManager manager : managers) {
+				if (largest == null || manager.size() > largest.size()) {
+					largest = manager;
+				}
+			}
+			final int size = largest != null ? largest.size() : 0;
+			if (size == 0) {
+				break;
+			}
+			largest.trimToSize(Math.max(0, size - excess));
+			excess -= size - largest.size();
+		}
+	}
+
+	private static int size(ArrayList<CursorManager> managers) {
+		int size = 0;
+		for (CursorManager manager : managers) {
+			size += manager.size();
+		}
+		return size;
+	}
+
+	public void evictAll() {
+		for (CursorManager manager : managers()) {
+			manager.evictAll();
+			manager.purgeLines();
+		}
+	}
+
+	public int size() {
+		return size(managers());
+	}
+
+	public int hitCount() {
+		int count = 0;
+		for (CursorManager manager : managers()) {
+			count += manager.hitCount();
+		}
+		return count;
+	}
+
+	public int missCount() {
+		int count = 0;
+		for (CursorManager manager : managers()) {
+			count += manager.missCount();
+		}
+		return count;
+	}
+
+	public int evictionCount() {
+		int count = 0;
+		for (CursorManager manager : managers()) {
+			count += manager.evictionCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of cursors built, read-ahead included
+	 */
+	public int buildCount() {
+		int count = 0;
+		for (CursorManager manager : managers()) {
+			count += manager.createCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return total time spent building cursors, in milliseconds
+	 */
+	public long buildTime() {
+		long time = 0;
+		for (CursorManager manager : managers()) {
+			time += manager.buildTimeNanos();
+		}
+		return time / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		final int hits = hitCount();
+		final int misses = missCount();
+		final int accesses = hits + misses;
+		final int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+		final int builds = buildCount();
+		final long buildTime = buildTime();
+		return "ZLTextParagraphCursorCache[size=" + size() + ",budget=" + budget()
+			+ ",hits=" + hits + ",misses=" + misses
+			+ ",evictions=" + evictionCount() + ",builds=" + builds
+			+ ",buildTime=" + buildTime + "ms"
+			+ ",avgBuildTime=" + (builds != 0 ? buildTime * 1000 / builds : 0) + "us"
+			+ ",hitRate=" + hitPercent + "%]";
+	}
+}
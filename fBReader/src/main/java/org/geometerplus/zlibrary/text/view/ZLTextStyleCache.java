@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.text.view;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geometerplus.zlibrary.text.model.ZLTextStyleEntry;
+import org.geometerplus.zlibrary.text.view.style.*;
+
+/**
+ * Bounded cache of interned style chains.
+ *
+ * A decorated style is defined by its parent, its description or style entry
+ * and its hyperlink, so equal chains share one style object, and each style
+ * computes its values (and metrics dependent ones, once per metrics) only once.
+ * Parents and hyperlinks are compared by identity; entries are compared
+ * by value, since every paragraph cursor decodes its own entries.
+ * Hyperlinks are per paragraph, so linked styles are shared within one
+ * paragraph only.
+ *
+ * Style values depend on options read when they are computed, so the cache
+ * must be cleared together with the other view caches. The cache is used
+ * under the view lock.
+ */
+final class ZLTextStyleCache {
+	private static final class Key {
+		private ZLTextStyle myParent;
+		private Object myDecoration;
+		private ZLTextHyperlink myHyperlink;
+
+		Key set(ZLTextStyle parent, Object decoration, ZLTextHyperlink hyperlink) {
+			myParent = parent;
+			myDecoration = decoration;
+			myHyperlink = hyperlink;
+			return this;
+		}
+
+		Key copy() {
+			return new Key().set(myParent, myDecoration, myHyperlink);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			return
+				myParent == key.myParent &&
+				myHyperlink == key.myHyperlink &&
+				myDecoration.equals(key.myDecoration);
+		}
+
+		@Override
+		public int hashCode() {
+			return
+				System.identityHashCode(myParent) +
+				31 * myDecoration.hashCode() +
+				239 * System.identityHashCode(myHyperlink);
+		}
+	}
+
+	private final LinkedHashMap<Key,ZLTextStyle> myStyles;
+	private final Key myProbe = new Key();
+
+	ZLTextStyleCache(final int maxSize) {
+		myStyles = new LinkedHashMap<Key,ZLTextStyle>(256, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,ZLTextStyle> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	ZLTextStyle getStyle(ZLTextStyle parent, ZLTextNGStyleDescription description, ZLTextHyperlink hyperlink) {
+		ZLTextStyle style = myStyles.get(myProbe.set(parent, description, hyperlink));
+		if (style == null) {
+			style = new ZLTextNGStyle(parent, description, hyperlink);
+			myStyles.put(myProbe.copy(), style);
+		}
+		return style;
+	}
+
+	ZLTextStyle getStyle(ZLTextStyle parent, ZLTextStyleEntry entry) {
+		ZLTextStyle style = myStyles.get(myProbe.set(parent, entry, null));
+		if (style == null) {
+			style = new ZLTextExplicitlyDecoratedStyle(parent, entry);
+			myStyles.put(myProbe.copy(), style);
+		}
+		return style;
+	}
+
+	void clear() {
+		myStyles.clear();
+	}
+}
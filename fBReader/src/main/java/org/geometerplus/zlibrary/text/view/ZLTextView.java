@@ -23,27 +23,32 @@ import org.geometerplus.fbreader.book.Bookmark;
 import org.geometerplus.fbreader.fbreader.BookmarkHighlighting;
 import org.geometerplus.zlibrary.core.application.ZLApplication;
 import org.geometerplus.zlibrary.core.filesystem.ZLFile;
+import org.geometerplus.zlibrary.core.library.ZLibrary;
 import org.geometerplus.zlibrary.core.util.RationalNumber;
 import org.geometerplus.zlibrary.core.util.ZLColor;
+import org.geometerplus.zlibrary.core.util.ZLSearchPattern;
 import org.geometerplus.zlibrary.core.view.Hull;
 import org.geometerplus.zlibrary.core.view.SelectionCursor;
 import org.geometerplus.zlibrary.core.view.ZLPaintContext;
+import org.geometerplus.zlibrary.core.view.ZLViewWidget;
 import org.geometerplus.zlibrary.text.hyphenation.ZLTextHyphenationInfo;
 import org.geometerplus.zlibrary.text.hyphenation.ZLTextHyphenator;
 import org.geometerplus.zlibrary.text.model.ZLTextAlignmentType;
 import org.geometerplus.zlibrary.text.model.ZLTextMark;
+import org.geometerplus.zlibrary.text.model.ZLTextMarkStore;
 import org.geometerplus.zlibrary.text.model.ZLTextModel;
 import org.geometerplus.zlibrary.text.model.ZLTextParagraph;
+import org.geometerplus.zlibrary.text.model.ZLTextSearch;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class ZLTextView extends ZLTextViewBase {
 
@@ -52,10 +57,16 @@ public abstract class ZLTextView extends ZLTextViewBase {
     public static final int SCROLLBAR_SHOW_AS_PROGRESS = 2;
     private static final char[] ourDefaultLetters = "System developers have used modeling languages for decades to specify, visualize, construct, and document systems. The Unified Modeling Language (UML) is one of those languages. UML makes it possible for team members to collaborate by providing a common language that applies to a multitude of different systems. Essentially, it enables you to communicate solutions in a consistent, tool-supported language.".toCharArray();
     private static final char[] SPACE = new char[]{' '};
-    private final HashMap<ZLTextLineInfo, ZLTextLineInfo> myLineInfoCache = new HashMap<ZLTextLineInfo, ZLTextLineInfo>();
+    // time the background pagination holds the view lock at once, in milliseconds
+    private static final int PAGINATION_SLICE_TIME = 20;
+    private static final long LAYOUT_CACHE_MAX_SIZE = 4L * 1024 * 1024;
+    private static ZLTextLayoutCache ourLayoutCache;
+    private static final int LINE_INFO_CACHE_SIZE = 2048;
+    // guarded by the view lock; replaced by the pagination's own cache while paginating
+    private ZLTextLineInfoCache myLineInfoCache = new ZLTextLineInfoCache(LINE_INFO_CACHE_SIZE);
     private final ZLTextSelection mySelection = new ZLTextSelection(this);
-    private final Set<ZLTextHighlighting> myHighlightingList = Collections.synchronizedSet(new TreeSet<ZLTextHighlighting>());
-    private final Set<ZLTextHighlighting> myBookMarkList = Collections.synchronizedSet(new TreeSet<ZLTextHighlighting>());
+    private final ZLTextHighlightingSet myHighlightingList = new ZLTextHighlightingSet();
+    private final ZLTextHighlightingSet myBookMarkList = new ZLTextHighlightingSet();
     private final char[] myLettersBuffer = new char[512];
     private ZLTextModel myModel;
     private int myScrollingMode;
@@ -69,8 +80,18 @@ public abstract class ZLTextView extends ZLTextViewBase {
     private int myLettersBufferLength = 0;
     private ZLTextModel myLettersModel = null;
     private float myCharWidth = -1f;
-    private volatile ZLTextWord myCachedWord;
-    private volatile ZLTextHyphenationInfo myCachedInfo;
+    // 每页字符数估计，按模型和文字区域缓存
+    private float myCharsPerPage = -1f;
+    private ZLTextModel myCharsPerPageModel = null;
+    private int myCharsPerPageWidth;
+    private int myCharsPerPageHeight;
+    // guarded by the view lock
+    private ZLTextPagination myPagination;
+    // number of paint/scrolling requests waiting for the view lock;
+    // a pagination slice gives the lock up as soon as one appears
+    private final AtomicInteger myWaitingRequests = new AtomicInteger();
+    // 已发布的页面状态，读取时不需要视图锁
+    private volatile PageSnapshot mySnapshot = PageSnapshot.EMPTY;
 
     public ZLTextView(ZLApplication application) {
         super(application);
@@ -81,7 +102,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     public synchronized void setModel(ZLTextModel model) {
-        myCursorManager = model != null ? new CursorManager(model, getExtensionManager()) : null;
+        cancelPagination();
+        myCursorManager = model != null ? new CursorManager(model, getExtensionManager(), myLineInfoCache) : null;
+        myLineInfoCache.clear();
 
         mySelection.clear();
         myHighlightingList.clear();
@@ -96,6 +119,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
                 myCurrentPage.moveStartCursor(myCursorManager.get(0));
             }
         }
+        publishSnapshot();
         Application.getViewWidget().reset();
     }
 
@@ -185,30 +209,114 @@ public abstract class ZLTextView extends ZLTextViewBase {
         }
     }
 
-    public synchronized int search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
-        if (myModel == null || text.length() == 0) {
+    /**
+     * Search progress callbacks; called on search threads.
+     */
+    public interface SearchListener {
+        void onSearchProgress(int count);
+        void onSearchFinished(int count);
+    }
+
+    public int search(final String text, boolean ignoreCase, boolean wholeText, boolean backward, boolean thisSectionOnly) {
+        final ZLTextSearch search = startSearch(text, ignoreCase, wholeText, backward, thisSectionOnly, null);
+        if (search == null) {
             return 0;
         }
+        try {
+            return search.await();
+        } catch (InterruptedException e) {
+            search.cancel();
+            Thread.currentThread().interrupt();
+            return search.getCount();
+        }
+    }
+
+    /**
+     * Starts the search and returns immediately. Marks are shown as soon as
+     * they are found; the view goes to the first suitable mark without waiting
+     * for the rest of the text to be scanned. A new search or
+     * clearFindResults() cancels the running one.
+     *
+     * @return the running search, or null if there is nothing to search in
+     */
+    public synchronized ZLTextSearch startSearch(final String text, boolean ignoreCase, final boolean wholeText, final boolean backward, boolean thisSectionOnly, final SearchListener listener) {
+        if (myModel == null || text.length() == 0) {
+            return null;
+        }
         int startIndex = 0;
         int endIndex = myModel.getParagraphsNumber();
         if (thisSectionOnly) {
             // TODO: implement
         }
-        int count = myModel.search(text, startIndex, endIndex, ignoreCase);
+        final ZLTextModel model = myModel;
+        final ZLTextMark position =
+                myCurrentPage.StartCursor.isNull() ? null : myCurrentPage.StartCursor.getMark();
+        final int fromIndex;
+        if (wholeText || position == null) {
+            fromIndex = backward ? endIndex - 1 : startIndex;
+        } else {
+            fromIndex = position.ParagraphIndex;
+        }
+
         myPreviousPage.reset();
         myNextPage.reset();
-        if (!myCurrentPage.StartCursor.isNull()) {
+        final ZLSearchPattern pattern = new ZLSearchPattern(text, ignoreCase);
+        return model.startSearch(pattern, startIndex, endIndex, fromIndex, backward, new ZLTextSearch.Listener() {
+            // chunks are delivered one by one, no synchronization is needed
+            private boolean myTargetIsShown = position == null;
+
+            public void onMarksFound(ZLTextSearch search, ZLTextMarkStore marks) {
+                synchronized (ZLTextView.this) {
+                    if (search.isCancelled() || model != myModel) {
+                        return;
+                    }
+                    if (!myTargetIsShown) {
+                        // chunks come in search order, so a mark found here is the final answer
+                        final ZLTextMark target = wholeText ?
+                                (backward ? model.getLastMark() : model.getFirstMark()) :
+                                (backward ? model.getPreviousMark(position) : model.getNextMark(position));
+                        if (target != null) {
+                            myTargetIsShown = true;
+                            rebuildPaintInfo();
+                            gotoMark(target);
+                        } else {
+                            onMarksAdded(marks);
+                        }
+                    } else {
+                        onMarksAdded(marks);
+                    }
+                }
+                Application.getViewWidget().reset();
+                Application.getViewWidget().repaint();
+                if (listener != null) {
+                    listener.onSearchProgress(search.getCount());
+                }
+            }
+
+            public void onSearchFinished(ZLTextSearch search) {
+                if (listener != null) {
+                    listener.onSearchFinished(search.getCount());
+                }
+            }
+        });
+    }
+
+    // drops cached cursors of the paragraphs that got new marks
+    private void onMarksAdded(ZLTextMarkStore marks) {
+        myPreviousPage.reset();
+        myNextPage.reset();
+        final int first = marks.getParagraphIndex(0);
+        final int last = marks.getParagraphIndex(marks.size() - 1);
+        final ZLTextWordCursor start = myCurrentPage.StartCursor;
+        final ZLTextWordCursor end = myCurrentPage.EndCursor;
+        if (!start.isNull() && start.getParagraphIndex() <= last &&
+                (end.isNull() || end.getParagraphIndex() >= first)) {
             rebuildPaintInfo();
-            if (count > 0) {
-                ZLTextMark mark = myCurrentPage.StartCursor.getMark();
-                gotoMark(wholeText ?
-                        (backward ? myModel.getLastMark() : myModel.getFirstMark()) :
-                        (backward ? myModel.getPreviousMark(mark) : myModel.getNextMark(mark)));
+        } else if (myCursorManager != null) {
+            for (int i = 0; i < marks.size(); ++i) {
+                myCursorManager.invalidate(marks.getParagraphIndex(i));
             }
-            Application.getViewWidget().reset();
-            Application.getViewWidget().repaint();
         }
-        return count;
     }
 
     public boolean canFindNext() {
@@ -245,14 +353,14 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     public boolean findResultsAreEmpty() {
-        return myModel == null || myModel.getMarks().isEmpty();
+        return myModel == null || myModel.getMarkStore().isEmpty();
     }
 
     protected synchronized void rebuildPaintInfo() {
         myPreviousPage.reset();
         myNextPage.reset();
         if (myCursorManager != null) {
-            myCursorManager.evictAll();
+            myCursorManager.invalidateAll();
         }
 
         if (myCurrentPage.PaintState != PaintStateEnum.NOTHING_TO_PAINT) {
@@ -269,6 +377,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
         }
 
         myLineInfoCache.clear();
+        clearStyleCache();
+        myCharsPerPage = -1f;
+        publishSnapshot();
     }
 
     public void highlight(ZLTextPosition start, ZLTextPosition end) {
@@ -277,17 +388,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     public boolean removeHighlightings(Class<? extends ZLTextHighlighting> type) {
-        boolean result = false;
-        synchronized (myHighlightingList) {
-            for (Iterator<ZLTextHighlighting> it = myHighlightingList.iterator(); it.hasNext(); ) {
-                final ZLTextHighlighting h = it.next();
-                if (type.isInstance(h)) {
-                    it.remove();
-                    result = true;
-                }
-            }
-        }
-        return result;
+        return myHighlightingList.removeAll(type);
     }
 
     public final void addHighlighting(ZLTextHighlighting h) {
@@ -311,17 +412,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     public boolean removeMarkHighlight(Class<? extends ZLTextHighlighting> type) {
-        boolean result = false;
-        synchronized (myBookMarkList) {
-            for (Iterator<ZLTextHighlighting> it = myBookMarkList.iterator(); it.hasNext(); ) {
-                final ZLTextHighlighting h = it.next();
-                if (type.isInstance(h)) {
-                    it.remove();
-                    result = true;
-                }
-            }
-        }
-        return result;
+        return myBookMarkList.removeAll(type);
     }
 
     public final void addHighlightings(Collection<ZLTextHighlighting> hilites) {
@@ -421,13 +512,25 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     @Override
-    public synchronized void preparePage(ZLPaintContext context, PageIndex pageIndex) {
-        setContext(context);
-        preparePaintInfo(getPage(pageIndex));
+    public void preparePage(ZLPaintContext context, PageIndex pageIndex) {
+        myWaitingRequests.incrementAndGet();
+        synchronized (this) {
+            myWaitingRequests.decrementAndGet();
+            setContext(context);
+            preparePaintInfo(getPage(pageIndex));
+        }
     }
 
     @Override
-    public synchronized void paint(ZLPaintContext context, PageIndex pageIndex) {
+    public void paint(ZLPaintContext context, PageIndex pageIndex) {
+        myWaitingRequests.incrementAndGet();
+        synchronized (this) {
+            myWaitingRequests.decrementAndGet();
+            paintPage(context, pageIndex);
+        }
+    }
+
+    private void paintPage(ZLPaintContext context, PageIndex pageIndex) {
         setContext(context);
         final ZLFile wallpaper = getWallpaperFile();
         if (wallpaper != null) {
@@ -491,6 +594,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
             previousInfo = info;
         }
 
+        // 区域已全部加入，建立查找索引
+        page.TextElementMap.index();
+
         // 绘制高亮
         final List<ZLTextHighlighting> highlightingList = findHighlightingList(page);
 
@@ -514,11 +620,18 @@ public abstract class ZLTextView extends ZLTextViewBase {
             }
         }
 
+        // 选区优先，其余高亮按起始位置排序，逐词顺序查找
+        final boolean hasSelection = !highlightingList.isEmpty() && highlightingList.get(0) == mySelection;
+        final ZLTextHighlightingSet.WordLookup wordHighlightings = new ZLTextHighlightingSet.WordLookup(
+                hasSelection ? mySelection : null,
+                highlightingList.subList(hasSelection ? 1 : 0, highlightingList.size())
+        );
+
         x = getLeftMargin();
         y = getTopMargin();
         index = 0;
         for (ZLTextLineInfo info : lineInfoList) {
-            drawTextLine(page, highlightingList, info, labels[index], labels[index + 1]);
+            drawTextLine(page, wordHighlightings, info, labels[index], labels[index + 1]);
             y += info.Height + info.Descent + info.VSpaceAfter;
             ++index;
             if (index == page.Column0Height) {
@@ -554,7 +667,15 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     @Override
-    public synchronized void onScrollingFinished(PageIndex pageIndex) {
+    public void onScrollingFinished(PageIndex pageIndex) {
+        myWaitingRequests.incrementAndGet();
+        synchronized (this) {
+            myWaitingRequests.decrementAndGet();
+            swapPages(pageIndex);
+        }
+    }
+
+    private void swapPages(PageIndex pageIndex) {
         switch (pageIndex) {
             case current:
                 break;
@@ -597,6 +718,35 @@ public abstract class ZLTextView extends ZLTextViewBase {
                 break;
             }
         }
+        publishSnapshot();
+        readAhead(pageIndex);
+    }
+
+    /**
+     * 在后台准备阅读方向上后续段落的游标
+     */
+    private void readAhead(PageIndex pageIndex) {
+        if (myCursorManager == null) {
+            return;
+        }
+        switch (pageIndex) {
+            case previous: {
+                final ZLTextWordCursor start = myCurrentPage.StartCursor;
+                if (!start.isNull()) {
+                    myCursorManager.readAhead(start.getParagraphIndex(), false);
+                }
+                break;
+            }
+            case next: {
+                final ZLTextWordCursor end = myCurrentPage.EndCursor;
+                if (!end.isNull()) {
+                    myCursorManager.readAhead(end.getParagraphIndex(), true);
+                }
+                break;
+            }
+            default:
+                break;
+        }
     }
 
     @Override
@@ -607,24 +757,28 @@ public abstract class ZLTextView extends ZLTextViewBase {
     public abstract int scrollbarType();
 
     @Override
-    public final synchronized int getScrollbarFullSize() {
+    public final int getScrollbarFullSize() {
         return sizeOfFullText();
     }
 
-    protected final synchronized int sizeOfFullText() {
-        if (myModel == null || myModel.getParagraphsNumber() == 0) {
+    protected final int sizeOfFullText() {
+        return mySnapshot.FullTextSize;
+    }
+
+    private static int sizeOfFullText(ZLTextModel model) {
+        if (model == null || model.getParagraphsNumber() == 0) {
             return 1;
         }
-        return myModel.getTextLength(myModel.getParagraphsNumber() - 1);
+        return model.getTextLength(model.getParagraphsNumber() - 1);
     }
 
     @Override
-    public final synchronized int getScrollbarThumbPosition(PageIndex pageIndex) {
+    public final int getScrollbarThumbPosition(PageIndex pageIndex) {
         return scrollbarType() == SCROLLBAR_SHOW_AS_PROGRESS ? 0 : getCurrentCharNumber(pageIndex, true);
     }
 
     @Override
-    public final synchronized int getScrollbarThumbLength(PageIndex pageIndex) {
+    public final int getScrollbarThumbLength(PageIndex pageIndex) {
         int start = scrollbarType() == SCROLLBAR_SHOW_AS_PROGRESS
                 ? 0 : getCurrentCharNumber(pageIndex, true);
         int end = getCurrentCharNumber(pageIndex, false);
@@ -662,14 +816,8 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     private List<ZLTextHighlighting> findBookMarkList(ZLTextPage page) {
-        final LinkedList<ZLTextHighlighting> bookMarkList = new LinkedList<>();
-        synchronized (myBookMarkList) {
-            for (ZLTextHighlighting h : myBookMarkList) {
-                if (h.intersects(page)) {
-                    bookMarkList.add(h);
-                }
-            }
-        }
+        final List<ZLTextHighlighting> bookMarkList = new ArrayList<>();
+        myBookMarkList.collect(page, bookMarkList);
         return bookMarkList;
     }
 
@@ -683,6 +831,162 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
     protected abstract String getPageProgress();
 
+    /**
+     * Publishes the state of the pages; must be called under the view lock
+     * after each change of the pages. Nothing is laid out here, the snapshot
+     * uses the pages and the page-break table as they are.
+     */
+    private void publishSnapshot() {
+        final int[] current = snapshotCharNumbers(myCurrentPage);
+        mySnapshot = new PageSnapshot(
+                myModel,
+                sizeOfFullText(myModel),
+                snapshotCharNumbers(myPreviousPage),
+                current,
+                snapshotCharNumbers(myNextPage),
+                snapshotPagePosition(current)
+        );
+    }
+
+    // 页面起止字符数；只知道起点（或终点）的页面两者都取已知的位置
+    private int[] snapshotCharNumbers(ZLTextPage page) {
+        if (myModel == null || myModel.getParagraphsNumber() == 0) {
+            return null;
+        }
+        switch (page.PaintState) {
+            case PaintStateEnum.READY:
+                return new int[]{getCharNumber(page, true), getCharNumber(page, false)};
+            case PaintStateEnum.START_IS_KNOWN:
+                if (!page.StartCursor.isNull()) {
+                    final int start = getCharNumber(page, true);
+                    return new int[]{start, Math.max(1, start)};
+                }
+                return null;
+            case PaintStateEnum.END_IS_KNOWN:
+                if (!page.EndCursor.isNull()) {
+                    final int end = getCharNumber(page, false);
+                    return new int[]{end, end};
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 当前页的页码，只使用已有的排版结果：分页表、已排版的页面和每页字符数估计
+     *
+     * @param current 当前页的起止字符数
+     */
+    private PagePosition snapshotPagePosition(int[] current) {
+        if (myModel == null || myModel.getParagraphsNumber() == 0) {
+            return new PagePosition(1, 1);
+        }
+        final PageSnapshot previous = mySnapshot;
+        if (current == null) {
+            // 当前页等待滚动，位置未知，保留原来的页码
+            return previous.Model == myModel ? previous.Position : new PagePosition(1, 1);
+        }
+
+        final int fullTextSize = sizeOfFullText(myModel);
+        final ZLTextWordCursor start = myCurrentPage.StartCursor;
+        final ZLTextPagination pagination = pagination();
+        if (pagination != null && !start.isNull()) {
+            if (pagination.isComplete()) {
+                return new PagePosition(pagination.findPage(start) + 1, pagination.size());
+            }
+            final float charsPerPage = pagination.charsPerPage();
+            if (charsPerPage > 0) {
+                // pages before the last known page start are exact,
+                // the rest are estimated by the average page size
+                final int known = pagination.size();
+                final int knownTextSize = pagination.knownTextSize();
+                final int currentPage = pagination.isExact(start)
+                        ? pagination.findPage(start) + 1
+                        : known + (int) (Math.max(0, sizeOfTextBeforeCursor(start) - knownTextSize) / charsPerPage);
+                final int total = known - 1 + (int) Math.ceil((fullTextSize - knownTextSize) / charsPerPage);
+                return new PagePosition(currentPage, Math.max(currentPage, total));
+            }
+        }
+
+        final float charsPerPage = charsPerPage();
+        if (charsPerPage <= 0) {
+            // 文字区域未知
+            return previous.Model == myModel ? previous.Position : new PagePosition(1, 1);
+        }
+        int currentPage = computeTextPageNumber(current[1], charsPerPage);
+        int total = computeTextPageNumber(fullTextSize, charsPerPage);
+
+        if (total > 3 || myCurrentPage.PaintState != PaintStateEnum.READY) {
+            return new PagePosition(currentPage, Math.max(currentPage, total));
+        }
+
+        // 短文本按相邻页面计算页码；相邻页面未排版时不为此排版
+        if (start.isStartOfText()) {
+            currentPage = 1;
+        } else if (myPreviousPage.PaintState == PaintStateEnum.READY) {
+            currentPage = myPreviousPage.StartCursor.isStartOfText() ? 2 : 3;
+        }
+
+        total = currentPage;
+        if (!myCurrentPage.EndCursor.isEndOfText()) {
+            total += myNextPage.PaintState != PaintStateEnum.READY || myNextPage.EndCursor.isEndOfText() ? 1 : 2;
+        }
+
+        return new PagePosition(currentPage, total);
+    }
+
+    /**
+     * 页面状态快照，发布后不再改变。
+     * 滚动条、页脚和进度查询读取快照，不等待正在进行的排版。
+     */
+    private static final class PageSnapshot {
+        static final PageSnapshot EMPTY = new PageSnapshot(null, 1, null, null, null, new PagePosition(1, 1));
+
+        final ZLTextModel Model;
+        final int FullTextSize;
+        // 页面起止字符数；页面位置未知时为 null
+        private final int[] myPrevious;
+        private final int[] myCurrent;
+        private final int[] myNext;
+        final PagePosition Position;
+
+        PageSnapshot(ZLTextModel model, int fullTextSize, int[] previous, int[] current, int[] next, PagePosition position) {
+            Model = model;
+            FullTextSize = fullTextSize;
+            myPrevious = previous;
+            myCurrent = current;
+            myNext = next;
+            Position = position;
+        }
+
+        /**
+         * @return 字符数，页面位置未知时返回当前页的字符数，都未知时返回 -1
+         */
+        int getCharNumber(PageIndex pageIndex, boolean startNotEndOfPage) {
+            int[] numbers;
+            switch (pageIndex) {
+                default:
+                case current:
+                    numbers = myCurrent;
+                    break;
+                case previous:
+                    numbers = myPrevious;
+                    break;
+                case next:
+                    numbers = myNext;
+                    break;
+            }
+            if (numbers == null) {
+                numbers = myCurrent;
+            }
+            if (numbers == null) {
+                return -1;
+            }
+            return numbers[startNotEndOfPage ? 0 : 1];
+        }
+    }
+
     private ZLTextPage getPage(PageIndex pageIndex) {
         switch (pageIndex) {
             default:
@@ -695,16 +999,21 @@ public abstract class ZLTextView extends ZLTextViewBase {
         }
     }
 
-    protected final synchronized int sizeOfTextBeforeParagraph(int paragraphIndex) {
-        return myModel != null ? myModel.getTextLength(paragraphIndex - 1) : 0;
+    protected final int sizeOfTextBeforeParagraph(int paragraphIndex) {
+        final ZLTextModel model = mySnapshot.Model;
+        return model != null ? model.getTextLength(paragraphIndex - 1) : 0;
     }
 
-    private synchronized int getCurrentCharNumber(PageIndex pageIndex, boolean startNotEndOfPage) {
-        if (myModel == null || myModel.getParagraphsNumber() == 0) {
-            return 0;
+    private int getCurrentCharNumber(PageIndex pageIndex, boolean startNotEndOfPage) {
+        // 从快照读取，不等待正在进行的排版
+        final int number = mySnapshot.getCharNumber(pageIndex, startNotEndOfPage);
+        if (number >= 0) {
+            return number;
         }
-        final ZLTextPage page = getPage(pageIndex);
-        preparePaintInfo(page);
+        return startNotEndOfPage ? 0 : 1;
+    }
+
+    private int getCharNumber(ZLTextPage page, boolean startNotEndOfPage) {
         if (startNotEndOfPage) {
             return Math.max(0, sizeOfTextBeforeCursor(page.StartCursor));
         } else {
@@ -738,7 +1047,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
      *
      * @return 一页的字符数
      */
-    private synchronized float computeCharsPerPage() {
+    private float computeCharsPerPage() {
         setTextStyle(getTextStyleCollection().getBaseStyle());
 
         final int textWidth = getTextColumnWidth();
@@ -765,17 +1074,37 @@ public abstract class ZLTextView extends ZLTextViewBase {
         return charsPerLine * linesPerPage;
     }
 
+    /**
+     * 每页字符数估计；计算时设置的基本样式会恢复，文字区域未知时返回 0
+     */
+    private float charsPerPage() {
+        final int width = getTextColumnWidth();
+        final int height = getTextAreaHeight();
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        if (myCharsPerPage < 0 || myCharsPerPageModel != myModel
+                || myCharsPerPageWidth != width || myCharsPerPageHeight != height) {
+            final ZLTextStyle storedStyle = getTextStyle();
+            try {
+                myCharsPerPage = Math.max(0, computeCharsPerPage());
+            } finally {
+                setTextStyle(storedStyle);
+            }
+            myCharsPerPageModel = myModel;
+            myCharsPerPageWidth = width;
+            myCharsPerPageHeight = height;
+        }
+        return myCharsPerPage;
+    }
+
     /**
      * 计算页数
      *
      * @return 页数
      */
-    private synchronized int computeTextPageNumber(int textSize) {
-        if (myModel == null || myModel.getParagraphsNumber() == 0) {
-            return 1;
-        }
-
-        final float factor = 1.0f / computeCharsPerPage();
+    private static int computeTextPageNumber(int textSize, float charsPerPage) {
+        final float factor = 1.0f / charsPerPage;
         final float pages = textSize * factor;
         return Math.max((int) (pages + 1.0f - 0.5f * factor), 1);
     }
@@ -821,48 +1150,126 @@ public abstract class ZLTextView extends ZLTextViewBase {
         return getContext().getStringWidth(pattern, 0, length) / ((float) length);
     }
 
-    public final synchronized PagePosition pagePosition() {
-        int current = computeTextPageNumber(getCurrentCharNumber(PageIndex.current, false));
-        int total = computeTextPageNumber(sizeOfFullText());
+    private synchronized void cancelPagination() {
+        if (myPagination != null) {
+            myPagination.cancel();
+            myPagination = null;
+        }
+    }
 
-        if (total > 3) {
-            return new PagePosition(current, total);
+    /**
+     * @return page-break table for the current text area, or null if the area is not known yet;
+     * a new table is started in background when the model or the area changes
+     */
+    private ZLTextPagination pagination() {
+        if (myModel == null || myModel.getParagraphsNumber() == 0) {
+            return null;
+        }
+        final int width = getTextColumnWidth();
+        final int height = getTextAreaHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
         }
+        if (myPagination == null || !myPagination.matches(myModel, width, height, twoColumnView())) {
+            cancelPagination();
+            myPagination = new ZLTextPagination(
+                    myModel, getExtensionManager(), width, height, twoColumnView(), layoutCacheKey(width, height)
+            );
+            myPagination.start(this, layoutCache());
+        }
+        return myPagination;
+    }
 
-        preparePaintInfo(myCurrentPage);
-        ZLTextWordCursor cursor = myCurrentPage.StartCursor;
-        if (cursor.isNull()) {
-            return new PagePosition(current, total);
+    /**
+     * @return identifier of the text source that is stable between sessions
+     * (e.g., a book content hash), or null if page breaks must not be stored
+     */
+    protected String getLayoutCacheId() {
+        return null;
+    }
+
+    private String layoutCacheKey(int width, int height) {
+        final String id = getLayoutCacheId();
+        if (id == null) {
+            return null;
         }
+        return id + "\n" + myModel.getId()
+                + "\n" + width + "x" + height + (twoColumnView() ? "x2" : "")
+                + "\n" + ZLibrary.Instance().getDisplayDPI()
+                + "\n" + getTextStyleCollection().getLayoutSignature();
+    }
 
-        if (cursor.isStartOfText()) {
-            current = 1;
-        } else {
-            ZLTextWordCursor prevCursor = myPreviousPage.StartCursor;
-            if (prevCursor.isNull()) {
-                preparePaintInfo(myPreviousPage);
-                prevCursor = myPreviousPage.StartCursor;
-            }
-            if (!prevCursor.isNull()) {
-                current = prevCursor.isStartOfText() ? 2 : 3;
-            }
+    private static synchronized ZLTextLayoutCache layoutCache() {
+        if (ourLayoutCache == null) {
+            ourLayoutCache = new ZLTextLayoutCache(
+                    ZLApplication.Instance().SystemInfo.tempDirectory() + "/layouts", LAYOUT_CACHE_MAX_SIZE
+            );
         }
+        return ourLayoutCache;
+    }
 
-        total = current;
-        cursor = myCurrentPage.EndCursor;
-        if (cursor.isNull()) {
-            return new PagePosition(current, total);
+    synchronized boolean restorePagination(ZLTextPagination pagination, int[][] table) {
+        if (pagination != myPagination) {
+            return false;
         }
-        if (!cursor.isEndOfText()) {
-            ZLTextWordCursor nextCursor = myNextPage.EndCursor;
-            if (nextCursor.isNull()) {
-                preparePaintInfo(myNextPage);
-                nextCursor = myNextPage.EndCursor;
-            }
-            total += nextCursor.isEndOfText() ? 1 : 2;
+        pagination.restore(table[0], table[1], table[2]);
+        publishSnapshot();
+        onPaginationComplete();
+        return true;
+    }
+
+    private void onPaginationComplete() {
+        // page numbers on the cached pages are estimated
+        final ZLViewWidget widget = Application.getViewWidget();
+        if (widget != null) {
+            widget.reset();
+            widget.repaint();
+        }
+    }
+
+    /**
+     * Builds the next pages of the table for a short time under the view lock;
+     * stops earlier if a paint or scrolling request is waiting for the lock.
+     *
+     * @return true if there are more pages to build
+     */
+    synchronized boolean paginate(ZLTextPagination pagination) {
+        if (pagination != myPagination || pagination.isComplete()) {
+            return false;
+        }
+        final long deadline = System.currentTimeMillis() + PAGINATION_SLICE_TIME;
+        final ZLTextPage page = pagination.Page;
+        final ZLTextWordCursor start = pagination.Cursor;
+        final ZLTextWordCursor end = new ZLTextWordCursor();
+        // lines of the pagination cursors are never shown, they must not evict the visible ones
+        final ZLTextLineInfoCache lineInfoCache = myLineInfoCache;
+        myLineInfoCache = pagination.LineInfoCache;
+        try {
+            do {
+                buildInfos(page, start, end);
+                if (end.isNull() || end.isEndOfText() || end.samePositionAs(start)) {
+                    pagination.setComplete();
+                    break;
+                }
+                start.setCursor(end);
+                pagination.addPage(start);
+            } while (System.currentTimeMillis() < deadline && myWaitingRequests.get() == 0);
+        } finally {
+            myLineInfoCache = lineInfoCache;
         }
+        page.LineInfos.clear();
+        pagination.LineInfoCache.clear();
+        // 页码估计随分页进度变化
+        publishSnapshot();
+
+        if (pagination.isComplete()) {
+            onPaginationComplete();
+        }
+        return !pagination.isComplete();
+    }
 
-        return new PagePosition(current, total);
+    public final PagePosition pagePosition() {
+        return mySnapshot.Position;
     }
 
     public final RationalNumber getProgress() {
@@ -875,7 +1282,14 @@ public abstract class ZLTextView extends ZLTextViewBase {
             return;
         }
 
-        final float factor = computeCharsPerPage();
+        final ZLTextPagination pagination = pagination();
+        if (pagination != null && page >= 1 && page <= pagination.size()) {
+            gotoPosition(pagination.getPageStart(page - 1));
+            return;
+        }
+
+        final float charsPerPage = pagination != null ? pagination.charsPerPage() : 0;
+        final float factor = charsPerPage > 0 ? charsPerPage : charsPerPage();
         final float textSize = page * factor;
 
         int intTextSize = (int) textSize;
@@ -918,17 +1332,11 @@ public abstract class ZLTextView extends ZLTextViewBase {
     }
 
     private List<ZLTextHighlighting> findHighlightingList(ZLTextPage page) {
-        final LinkedList<ZLTextHighlighting> highlightingList = new LinkedList<>();
+        final List<ZLTextHighlighting> highlightingList = new ArrayList<>();
         if (mySelection.intersects(page)) {
             highlightingList.add(mySelection);
         }
-        synchronized (myHighlightingList) {
-            for (ZLTextHighlighting h : myHighlightingList) {
-                if (h.intersects(page)) {
-                    highlightingList.add(h);
-                }
-            }
-        }
+        myHighlightingList.collect(page, highlightingList);
         return highlightingList;
     }
 
@@ -938,12 +1346,12 @@ public abstract class ZLTextView extends ZLTextViewBase {
      * 绘制文本行
      *
      * @param page             页面
-     * @param highlightingList 高亮列表
+     * @param highlightingList 文字高亮查找，行按顺序绘制
      * @param info             文本行信息
      * @param from             起始索引
      * @param to               结束索引
      */
-    private void drawTextLine(ZLTextPage page, List<ZLTextHighlighting> highlightingList, ZLTextLineInfo info, int from, int to) {
+    private void drawTextLine(ZLTextPage page, ZLTextHighlightingSet.WordLookup highlightingList, ZLTextLineInfo info, int from, int to) {
         final ZLPaintContext context = getContext();
         final ZLTextParagraphCursor paragraph = info.ParagraphCursor;
         int index = from;
@@ -954,9 +1362,10 @@ public abstract class ZLTextView extends ZLTextViewBase {
             return;
         }
         for (int wordIndex = info.RealStartElementIndex; wordIndex != endElementIndex && index < to; ++wordIndex, charIndex = 0) {
-            final ZLTextElement element = paragraph.getElement(wordIndex);
             final ZLTextElementArea area = pageAreas.get(index);
-            if (element == area.Element) {
+            // 区域保存了布局时生成的元素，绘制时不再从段落游标中取
+            if (area.ElementIndex == wordIndex) {
+                final ZLTextElement element = area.Element;
                 ++index;
                 if (area.ChangeStyle) {
                     setTextStyle(area.Style);
@@ -1024,7 +1433,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
             final int start = info.StartElementIndex == info.EndElementIndex
                     ? info.StartCharIndex : 0;
             final int len = info.EndCharIndex - start;
-            final ZLTextWord word = (ZLTextWord) paragraph.getElement(info.EndElementIndex);
+            final ZLTextWord word = (ZLTextWord) area.Element;
             final ZLTextPosition pos =
                     new ZLTextFixedPosition(info.ParagraphCursor.Index, info.EndElementIndex, 0);
             final ZLTextHighlighting hl = getWordHighlighting(pos, highlightingList);
@@ -1041,17 +1450,12 @@ public abstract class ZLTextView extends ZLTextViewBase {
      * 获取文字高亮
      *
      * @param pos              位置信息
-     * @param highlightingList 高亮列表
+     * @param highlightingList 文字高亮查找，位置不能递减
      * @return 文字高亮信息
      */
-    private ZLTextHighlighting getWordHighlighting(ZLTextPosition pos, List<ZLTextHighlighting> highlightingList) {
-        for (ZLTextHighlighting h : highlightingList) {
-            // 如果文本位置在高亮列表的位置里，返回该高亮信息
-            if (h.getStartPosition().compareToIgnoreChar(pos) <= 0 && pos.compareToIgnoreChar(h.getEndPosition()) <= 0) {
-                return h;
-            }
-        }
-        return null;
+    private ZLTextHighlighting getWordHighlighting(ZLTextPosition pos, ZLTextHighlightingSet.WordLookup highlightingList) {
+        // 返回包含该文本位置的第一个高亮
+        return highlightingList.find(pos);
     }
 
     private void buildInfos(ZLTextPage page, ZLTextWordCursor start, ZLTextWordCursor result) {
@@ -1112,12 +1516,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
                 && getTextStyle().allowHyphenations();
     }
 
-    private final synchronized ZLTextHyphenationInfo getHyphenationInfo(ZLTextWord word) {
-        if (myCachedWord != word) {
-            myCachedWord = word;
-            myCachedInfo = ZLTextHyphenator.Instance().getInfo(word);
-        }
-        return myCachedInfo;
+    private ZLTextHyphenationInfo getHyphenationInfo(ZLTextWord word) {
+        // 结果缓存在 ZLTextHyphenator 中，与后台分页共用
+        return ZLTextHyphenator.Instance().getInfo(word);
     }
 
     private ZLTextLineInfo processTextLine(
@@ -1128,6 +1529,15 @@ public abstract class ZLTextView extends ZLTextViewBase {
             final int endIndex,
             ZLTextLineInfo previousInfo
     ) {
+        // 行布局与高亮无关，重绘时直接复用缓存的行
+        final ZLTextLineInfo cachedInfo =
+                myLineInfoCache.get(paragraphCursor, startIndex, startCharIndex, page.getTextWidth());
+        if (cachedInfo != null) {
+            cachedInfo.adjust(previousInfo);
+            applyStyleChanges(paragraphCursor, startIndex, cachedInfo.EndElementIndex);
+            return cachedInfo;
+        }
+
         final ZLTextLineInfo info = processTextLineInternal(
                 page, paragraphCursor, startIndex, startCharIndex, endIndex, previousInfo
         );
@@ -1149,27 +1559,23 @@ public abstract class ZLTextView extends ZLTextViewBase {
     ) {
         final ZLPaintContext context = getContext();
         final ZLTextLineInfo info = new ZLTextLineInfo(paragraphCursor, startIndex, startCharIndex, getTextStyle());
-        final ZLTextLineInfo cachedInfo = myLineInfoCache.get(info);
-        if (cachedInfo != null) {
-            cachedInfo.adjust(previousInfo);
-            applyStyleChanges(paragraphCursor, startIndex, cachedInfo.EndElementIndex);
-            return cachedInfo;
-        }
 
         int currentElementIndex = startIndex;
         int currentCharIndex = startCharIndex;
         final boolean isFirstLine = startIndex == 0 && startCharIndex == 0;
 
         if (isFirstLine) {
-            ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-            while (isStyleChangeElement(element)) {
+            while (!paragraphCursor.isWord(currentElementIndex)) {
+                final ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
+                if (!isStyleChangeElement(element)) {
+                    break;
+                }
                 applyStyleChangeElement(element);
                 ++currentElementIndex;
                 currentCharIndex = 0;
                 if (currentElementIndex == endIndex) {
                     break;
                 }
-                element = paragraphCursor.getElement(currentElementIndex);
             }
             info.StartStyle = getTextStyle();
             info.RealStartElementIndex = currentElementIndex;
@@ -1204,50 +1610,61 @@ public abstract class ZLTextView extends ZLTextViewBase {
         int internalSpaceCounter = 0;
         boolean removeLastSpace = false;
 
+        // 文字不生成 ZLTextWord 对象，直接使用段落游标中的紧凑数据
+        boolean isWord = paragraphCursor.isWord(currentElementIndex);
+        ZLTextElement element = isWord ? null : paragraphCursor.getElement(currentElementIndex);
         do {
-            ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-            newWidth += getElementWidth(element, currentCharIndex);
-            newHeight = Math.max(newHeight, getElementHeight(element));
-            newDescent = Math.max(newDescent, getElementDescent(element));
-            if (element == ZLTextElement.HSpace) {
-                if (wordOccurred) {
-                    wordOccurred = false;
-                    internalSpaceCounter++;
-                    lastSpaceWidth = context.getSpaceWidth();
-                    newWidth += lastSpaceWidth;
-                }
-            } else if (element == ZLTextElement.NBSpace) {
-                wordOccurred = true;
-            } else if (element instanceof ZLTextWord) {
-                wordOccurred = true;
-                isVisible = true;
-            } else if (element instanceof ZLTextImageElement) {
+            if (isWord) {
+                newWidth += currentCharIndex == 0
+                        ? paragraphCursor.getWordWidth(currentElementIndex, context)
+                        : getWordWidth(paragraphCursor.getWord(currentElementIndex), currentCharIndex);
+                newHeight = Math.max(newHeight, getWordHeight());
+                newDescent = Math.max(newDescent, context.getDescent());
                 wordOccurred = true;
                 isVisible = true;
-            } else if (element instanceof ZLTextVideoElement) {
-                wordOccurred = true;
-                isVisible = true;
-            } else if (element instanceof ExtensionElement) {
-                wordOccurred = true;
-                isVisible = true;
-            } else if (isStyleChangeElement(element)) {
-                applyStyleChangeElement(element);
+            } else {
+                newWidth += getElementWidth(element, currentCharIndex);
+                newHeight = Math.max(newHeight, getElementHeight(element));
+                newDescent = Math.max(newDescent, getElementDescent(element));
+                if (element == ZLTextElement.HSpace) {
+                    if (wordOccurred) {
+                        wordOccurred = false;
+                        internalSpaceCounter++;
+                        lastSpaceWidth = context.getSpaceWidth();
+                        newWidth += lastSpaceWidth;
+                    }
+                } else if (element == ZLTextElement.NBSpace) {
+                    wordOccurred = true;
+                } else if (element instanceof ZLTextImageElement) {
+                    wordOccurred = true;
+                    isVisible = true;
+                } else if (element instanceof ZLTextVideoElement) {
+                    wordOccurred = true;
+                    isVisible = true;
+                } else if (element instanceof ExtensionElement) {
+                    wordOccurred = true;
+                    isVisible = true;
+                } else if (isStyleChangeElement(element)) {
+                    applyStyleChangeElement(element);
+                }
             }
             if (newWidth > maxWidth) {
-                if (info.EndElementIndex != startIndex || element instanceof ZLTextWord) {
+                if (info.EndElementIndex != startIndex || isWord) {
                     break;
                 }
             }
-            ZLTextElement previousElement = element;
+            final ZLTextElement previousElement = element;
+            final boolean previousIsWord = isWord;
             ++currentElementIndex;
             currentCharIndex = 0;
             boolean allowBreak = currentElementIndex == endIndex;
             if (!allowBreak) {
-                element = paragraphCursor.getElement(currentElementIndex);
+                isWord = paragraphCursor.isWord(currentElementIndex);
+                element = isWord ? null : paragraphCursor.getElement(currentElementIndex);
                 allowBreak =
                         previousElement != ZLTextElement.NBSpace &&
                                 element != ZLTextElement.NBSpace &&
-                                (!(element instanceof ZLTextWord) || previousElement instanceof ZLTextWord) &&
+                                (!isWord || previousIsWord) &&
                                 !(element instanceof ZLTextImageElement) &&
                                 !(element instanceof ZLTextControlElement);
             }
@@ -1270,9 +1687,8 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
         if (currentElementIndex != endIndex &&
                 (isHyphenationPossible() || info.EndElementIndex == startIndex)) {
-            ZLTextElement element = paragraphCursor.getElement(currentElementIndex);
-            if (element instanceof ZLTextWord) {
-                final ZLTextWord word = (ZLTextWord) element;
+            if (paragraphCursor.isWord(currentElementIndex)) {
+                final ZLTextWord word = paragraphCursor.getWord(currentElementIndex);
                 newWidth -= getWordWidth(word, currentCharIndex);
                 int spaceLeft = maxWidth - newWidth;
                 if ((word.Length > 3 && spaceLeft > 2 * context.getSpaceWidth())
@@ -1353,20 +1769,15 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
         if (isFirstLine) {
             info.VSpaceBefore = info.StartStyle.getSpaceBefore(metrics());
-            if (previousInfo != null) {
-                info.PreviousInfoUsed = true;
-                info.Height += Math.max(0, info.VSpaceBefore - previousInfo.VSpaceAfter);
-            } else {
-                info.PreviousInfoUsed = false;
-                info.Height += info.VSpaceBefore;
-            }
         }
+        info.ContentHeight = info.Height;
+        info.adjust(previousInfo);
         if (info.isEndOfParagraph()) {
             info.VSpaceAfter = getTextStyle().getSpaceAfter(metrics());
         }
 
         if (info.EndElementIndex != endIndex || endIndex == info.ParagraphCursorLength) {
-            myLineInfoCache.put(info, info);
+            myLineInfoCache.put(info, page.getTextWidth());
         }
 
         return info;
@@ -1418,7 +1829,9 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
         for (int wordIndex = info.RealStartElementIndex; wordIndex != endElementIndex; ++wordIndex, charIndex = 0) {
             final ZLTextElement element = paragraph.getElement(wordIndex);
-            final int width = getElementWidth(element, charIndex);
+            final int width = charIndex == 0 && paragraph.isWord(wordIndex)
+                    ? paragraph.getWordWidth(wordIndex, context)
+                    : getElementWidth(element, charIndex);
             if (element == ZLTextElement.HSpace) {
                 if (wordOccurred && spaceCounter > 0) {
                     final int spaceLength = context.getSpaceWidth();
@@ -1500,6 +1913,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
             myScrollingMode = scrollingMode;
             myOverlappingValue = value;
         }
+        publishSnapshot();
     }
 
     public final synchronized void gotoPosition(ZLTextPosition position) {
@@ -1518,6 +1932,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
             if (myCurrentPage.isEmptyPage()) {
                 turnPage(true, ScrollingMode.NO_OVERLAPPING, 0);
             }
+            publishSnapshot();
         }
     }
 
@@ -1530,6 +1945,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
             if (myCurrentPage.isEmptyPage()) {
                 turnPage(false, ScrollingMode.NO_OVERLAPPING, 0);
             }
+            publishSnapshot();
         }
     }
 
@@ -1537,6 +1953,7 @@ public abstract class ZLTextView extends ZLTextViewBase {
         myPreviousPage.reset();
         myNextPage.reset();
         preparePaintInfo(myCurrentPage);
+        publishSnapshot();
     }
 
     /**
@@ -1554,10 +1971,6 @@ public abstract class ZLTextView extends ZLTextViewBase {
 
         final int oldState = page.PaintState;
 
-        for (ZLTextLineInfo info : page.LineInfos) {
-            myLineInfoCache.put(info, info);
-        }
-
         switch (page.PaintState) {
             default:
                 break;
@@ -1653,8 +2066,6 @@ public abstract class ZLTextView extends ZLTextViewBase {
         }
         page.PaintState = PaintStateEnum.READY;
 
-        myLineInfoCache.clear();
-
         if (page == myCurrentPage) {
             if (oldState != PaintStateEnum.START_IS_KNOWN) {
                 myPreviousPage.reset();
@@ -1663,13 +2074,15 @@ public abstract class ZLTextView extends ZLTextViewBase {
                 myNextPage.reset();
             }
         }
+        publishSnapshot();
     }
 
     public void clearCaches() {
         resetMetrics();
+        cancelPagination();
+        myCharWidth = -1;
         rebuildPaintInfo();
         Application.getViewWidget().reset();
-        myCharWidth = -1;
     }
 
     private int infoSize(ZLTextLineInfo info, int unit) {
@@ -1795,11 +2208,11 @@ public abstract class ZLTextView extends ZLTextViewBase {
         if (region == null) {
             return null;
         }
-        synchronized (myHighlightingList) {
-            for (ZLTextHighlighting h : myHighlightingList) {
-                if (h.getBackgroundColor() != null && h.intersects(region)) {
-                    return h;
-                }
+        final List<ZLTextHighlighting> highlightingList = new ArrayList<>();
+        myHighlightingList.collect(region, highlightingList);
+        for (ZLTextHighlighting h : highlightingList) {
+            if (h.getBackgroundColor() != null) {
+                return h;
             }
         }
         return null;
@@ -32,7 +32,11 @@ import org.geometerplus.zlibrary.text.view.style.*;
 
 abstract class ZLTextViewBase extends ZLView {
 
+    private static final int STYLE_CACHE_SIZE = 1024;
+
     private ZLTextStyle myTextStyle;
+    // 样式链缓存，相同的样式链共用同一个样式对象
+    private final ZLTextStyleCache myStyleCache = new ZLTextStyleCache(STYLE_CACHE_SIZE);
     private int myWordHeight = -1;
     private ZLTextMetrics myMetrics;
     private int myMaxSelectionDistance = 0;
@@ -53,6 +57,13 @@ abstract class ZLTextViewBase extends ZLView {
         myMetrics = null;
     }
 
+    /**
+     * 样式值依赖于设置，设置改变后需要清除
+     */
+    final void clearStyleCache() {
+        myStyleCache.clear();
+    }
+
     final int getWordHeight() {
         if (myWordHeight == -1) {
             final ZLTextStyle textStyle = myTextStyle;
@@ -170,7 +181,9 @@ abstract class ZLTextViewBase extends ZLView {
 
     void applyStyleChanges(ZLTextParagraphCursor cursor, int index, int end) {
         for (; index != end; ++index) {
-            applyStyleChangeElement(cursor.getElement(index));
+            if (!cursor.isWord(index)) {
+                applyStyleChangeElement(cursor.getElement(index));
+            }
         }
     }
 
@@ -181,7 +194,7 @@ abstract class ZLTextViewBase extends ZLView {
             final ZLTextNGStyleDescription description =
                     getTextStyleCollection().getDescription(control.Kind);
             if (description != null) {
-                setTextStyle(new ZLTextNGStyle(myTextStyle, description, hyperlink));
+                setTextStyle(myStyleCache.getStyle(myTextStyle, description, hyperlink));
             }
         } else {
             setTextStyle(myTextStyle.Parent);
@@ -189,7 +202,7 @@ abstract class ZLTextViewBase extends ZLView {
     }
 
     private void applyStyle(ZLTextStyleElement element) {
-        setTextStyle(new ZLTextExplicitlyDecoratedStyle(myTextStyle, element.Entry));
+        setTextStyle(myStyleCache.getStyle(myTextStyle, element.Entry));
     }
 
     private void applyStyleClose() {
@@ -265,11 +278,34 @@ abstract class ZLTextViewBase extends ZLView {
         return
                 start == 0 ?
                         word.getWidth(getContext()) :
-                        getContext().getStringWidth(word.Data, word.Offset + start, word.Length - start);
+                        getWordWidth(word, start, word.Length - start);
     }
 
     final int getWordWidth(ZLTextWord word, int start, int length) {
-        return getContext().getStringWidth(word.Data, word.Offset + start, length);
+        final int printableStart = word.printableIndex(start);
+        return getContext().getStringWidth(
+                word.PrintableData,
+                word.PrintableOffset + printableStart,
+                word.printableIndex(start + length) - printableStart
+        );
+    }
+
+    /**
+     * 复制可打印字符并添加断字连接符
+     *
+     * @return 复制的字符数（含连接符）
+     */
+    private int copyWithHyphenationSign(ZLTextWord word, int start, int length) {
+        final int printableStart = word.printableIndex(start);
+        final int printableLength = word.printableIndex(start + length) - printableStart;
+        char[] part = myWordPartArray;
+        if (printableLength + 1 > part.length) {
+            part = new char[printableLength + 1];
+            myWordPartArray = part;
+        }
+        System.arraycopy(word.PrintableData, word.PrintableOffset + printableStart, part, 0, printableLength);
+        part[printableLength] = '-';
+        return printableLength + 1;
     }
 
     int getAreaLength(ZLTextParagraphCursor paragraph, ZLTextElementArea area, int toCharIndex) {
@@ -295,16 +331,9 @@ abstract class ZLTextViewBase extends ZLView {
             length = word.Length - start;
         }
         if (!addHyphenationSign) {
-            return getContext().getStringWidth(word.Data, word.Offset + start, length);
+            return getWordWidth(word, start, length);
         }
-        char[] part = myWordPartArray;
-        if (length + 1 > part.length) {
-            part = new char[length + 1];
-            myWordPartArray = part;
-        }
-        System.arraycopy(word.Data, word.Offset + start, part, 0, length);
-        part[length] = '-';
-        return getContext().getStringWidth(part, 0, length + 1);
+        return getContext().getStringWidth(myWordPartArray, 0, copyWithHyphenationSign(word, start, length));
     }
 
     /**
@@ -321,23 +350,23 @@ abstract class ZLTextViewBase extends ZLView {
     final void drawWord(int x, int y, ZLTextWord word, int start, int length, boolean addHyphenationSign, ZLColor color) {
         final ZLPaintContext context = getContext();
         if (start == 0 && length == -1) { // 绘制整个
-            drawString(context, x, y, word.Data, word.Offset, word.Length, word.getMark(), color, 0);
+            drawString(context, x, y, word.PrintableData, word.PrintableOffset, word.printableIndex(word.Length), word, color, 0);
         } else {
             if (length == -1) {
                 length = word.Length - start;
             }
             if (!addHyphenationSign) { // 无断字连接
-                drawString(context, x, y, word.Data, word.Offset + start, length, word.getMark(), color, start);
+                final int printableStart = word.printableIndex(start);
+                drawString(
+                        context, x, y,
+                        word.PrintableData, word.PrintableOffset + printableStart,
+                        word.printableIndex(start + length) - printableStart,
+                        word, color, start
+                );
             } else { // 有断字连接
-                char[] part = myWordPartArray;
-                if (length + 1 > part.length) {
-                    part = new char[length + 1];
-                    myWordPartArray = part;
-                }
                 // 添加断字连接符
-                System.arraycopy(word.Data, word.Offset + start, part, 0, length);
-                part[length] = '-';
-                drawString(context, x, y, part, 0, length + 1, word.getMark(), color, start);
+                final int partLength = copyWithHyphenationSign(word, start, length);
+                drawString(context, x, y, myWordPartArray, 0, partLength, word, color, start);
             }
         }
     }
@@ -348,24 +377,30 @@ abstract class ZLTextViewBase extends ZLView {
      * @param context 画笔上下文
      * @param x       X坐标
      * @param y       Y坐标
-     * @param str     字符串
+     * @param str     可打印字符（不含软连字符）
      * @param offset  位移
      * @param length  长度
-     * @param mark    标记信息
+     * @param word    文字（标记位置为原字符索引）
      * @param color   高亮前景色
-     * @param shift   变换
+     * @param shift   str 起始处的原字符索引
      */
-    private void drawString(ZLPaintContext context, int x, int y, char[] str, int offset, int length, ZLTextWord.Mark mark, ZLColor color, int shift) {
+    private void drawString(ZLPaintContext context, int x, int y, char[] str, int offset, int length, ZLTextWord word, ZLColor color, int shift) {
+        ZLTextWord.Mark mark = word.getMark();
         if (mark == null) { // 无标记
             context.setTextColor(color);
             context.drawString(x, y, str, offset, length);
         } else { // 有标记
+            final int printableShift = word.printableIndex(shift);
             int pos = 0;
             for (; (mark != null) && (pos < length); mark = mark.getNext()) {
                 // 标记的起始
-                int markStart = mark.Start - shift;
+                int markStart = word.printableIndex(mark.Start) - printableShift;
                 // 标记的长度
-                int markLen = mark.Length;
+                int markLen = word.printableIndex(mark.Start + mark.Length) - printableShift - markStart;
+                if (mark.Start + mark.Length > word.Length) {
+                    // 标记延续到词尾之后（包括断字连接符）
+                    markLen += mark.Start + mark.Length - word.Length;
+                }
 
                 if (markStart < pos) {
                     markLen += markStart - pos;
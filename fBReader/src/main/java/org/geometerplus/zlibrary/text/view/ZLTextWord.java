@@ -29,6 +29,15 @@ public final class ZLTextWord extends ZLTextElement {
     public final char[] Data;
     public final int Offset;
     public final int Length;
+    /**
+     * 去掉软连字符（U+00AD）后用于测量和绘制的字符；没有软连字符时与 Data 相同
+     */
+    final char[] PrintableData;
+    final int PrintableOffset;
+    /**
+     * 原字符索引（0..Length）到可打印字符索引的映射；没有软连字符时为 null
+     */
+    private final int[] myPrintableIndices;
     private int myWidth = -1;
     private Mark myMark;
     private int myParagraphOffset;
@@ -70,10 +79,59 @@ public final class ZLTextWord extends ZLTextElement {
     }
 
     ZLTextWord(char[] data, int offset, int length, int paragraphOffset) {
+        this(data, offset, length, paragraphOffset, -1);
+    }
+
+    /**
+     * @param width 已测量的宽度，未测量时为 -1
+     */
+    ZLTextWord(char[] data, int offset, int length, int paragraphOffset, int width) {
         Data = data;
         Offset = offset;
         Length = length;
         myParagraphOffset = paragraphOffset;
+        myWidth = width;
+
+        int softHyphens = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            if (data[i] == (char) 0xAD) {
+                ++softHyphens;
+            }
+        }
+        if (softHyphens == 0) {
+            PrintableData = data;
+            PrintableOffset = offset;
+            myPrintableIndices = null;
+        } else {
+            final char[] printable = new char[length - softHyphens];
+            final int[] indices = new int[length + 1];
+            int j = 0;
+            for (int i = 0; i < length; ++i) {
+                indices[i] = j;
+                final char ch = data[offset + i];
+                if (ch != (char) 0xAD) {
+                    printable[j++] = ch;
+                }
+            }
+            indices[length] = j;
+            PrintableData = printable;
+            PrintableOffset = 0;
+            myPrintableIndices = indices;
+        }
+    }
+
+    /**
+     * @param charIndex 原字符索引，超出 [0, Length] 时取边界值
+     * @return 对应的可打印字符索引（相对 PrintableOffset）
+     */
+    int printableIndex(int charIndex) {
+        if (charIndex <= 0) {
+            return 0;
+        }
+        if (charIndex > Length) {
+            charIndex = Length;
+        }
+        return myPrintableIndices != null ? myPrintableIndices[charIndex] : charIndex;
     }
 
     public boolean isASpace() {
@@ -111,7 +169,7 @@ public final class ZLTextWord extends ZLTextElement {
     public int getWidth(ZLPaintContext context) {
         int width = myWidth;
         if (width <= 1) {
-            width = context.getStringWidth(Data, Offset, Length);
+            width = context.getStringWidth(PrintableData, PrintableOffset, printableIndex(Length));
             myWidth = width;
         }
         return width;
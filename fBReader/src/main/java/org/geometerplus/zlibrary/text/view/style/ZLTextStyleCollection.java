@@ -61,6 +61,43 @@ public class ZLTextStyleCollection {
 		return myDescriptionMap[kind & 0xFF];
 	}
 
+	/**
+	 * @return current values of all the options that affect text layout;
+	 * equal signatures mean equal layout of the same text in the same area
+	 */
+	public String getLayoutSignature() {
+		final ZLTextBaseStyle base = myBaseStyle;
+		final StringBuilder buffer = new StringBuilder();
+		buffer.append(base.FontFamilyOption.getValue()).append(';');
+		buffer.append(base.FontSizeOption.getValue()).append(';');
+		buffer.append(base.BoldOption.getValue()).append(';');
+		buffer.append(base.ItalicOption.getValue()).append(';');
+		buffer.append(base.AlignmentOption.getValue()).append(';');
+		buffer.append(base.LineSpaceOption.getValue()).append(';');
+		buffer.append(base.AutoHyphenationOption.getValue()).append(';');
+		buffer.append(base.UseCSSTextAlignmentOption.getValue()).append(';');
+		buffer.append(base.UseCSSMarginsOption.getValue()).append(';');
+		buffer.append(base.UseCSSFontSizeOption.getValue()).append(';');
+		buffer.append(base.UseCSSFontFamilyOption.getValue());
+		for (ZLTextNGStyleDescription description : myDescriptionList) {
+			buffer.append('|');
+			buffer.append(description.FontFamilyOption.getValue()).append(';');
+			buffer.append(description.FontSizeOption.getValue()).append(';');
+			buffer.append(description.FontWeightOption.getValue()).append(';');
+			buffer.append(description.FontStyleOption.getValue()).append(';');
+			buffer.append(description.HyphenationOption.getValue()).append(';');
+			buffer.append(description.MarginTopOption.getValue()).append(';');
+			buffer.append(description.MarginBottomOption.getValue()).append(';');
+			buffer.append(description.MarginLeftOption.getValue()).append(';');
+			buffer.append(description.MarginRightOption.getValue()).append(';');
+			buffer.append(description.TextIndentOption.getValue()).append(';');
+			buffer.append(description.AlignmentOption.getValue()).append(';');
+			buffer.append(description.VerticalAlignOption.getValue()).append(';');
+			buffer.append(description.LineHeightOption.getValue());
+		}
+		return buffer.toString();
+	}
+
 	private class TextStyleReader extends DefaultHandler {
 		private int intValue(Attributes attributes, String name, int defaultValue) {
 			final String value = attributes.getValue(name);
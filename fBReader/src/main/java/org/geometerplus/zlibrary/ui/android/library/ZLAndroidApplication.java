@@ -19,8 +19,11 @@
 
 package org.geometerplus.zlibrary.ui.android.library;
 
+import android.app.ActivityManager;
 import android.app.Application;
 
+import org.geometerplus.zlibrary.text.model.CharBlockCache;
+import org.geometerplus.zlibrary.text.view.ZLTextParagraphCursorCache;
 import org.geometerplus.zlibrary.ui.android.image.ZLAndroidImageManager;
 
 import org.geometerplus.android.fbreader.config.ConfigShadow;
@@ -41,11 +44,31 @@ public abstract class ZLAndroidApplication extends Application {
             t.printStackTrace();
         }
 
+        final ActivityManager manager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        // text blocks may take 1/16 of the per-application heap limit
+        CharBlockCache.Instance().setBudget(manager.getMemoryClass() * 1024L * 1024L / 16);
+        // so may paragraph cursors of all the views; a paragraph element takes about 40 bytes
+        ZLTextParagraphCursorCache.Instance().setBudget(manager.getMemoryClass() * 1024 * 1024 / 16 / 40);
+
         myConfig = new ConfigShadow(this);
         new ZLAndroidImageManager();
         myLibrary = new ZLAndroidLibrary(this);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        final ZLTextParagraphCursorCache cursorCache = ZLTextParagraphCursorCache.Instance();
+        if (level >= TRIM_MEMORY_MODERATE) {
+            // the process is going to be killed soon, cursors are cheap to rebuild
+            cursorCache.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            cursorCache.trimToSize(cursorCache.budget() / 4);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            cursorCache.trimToSize(cursorCache.budget() / 2);
+        }
+    }
+
     public final ZLAndroidLibrary library() {
         return myLibrary;
     }
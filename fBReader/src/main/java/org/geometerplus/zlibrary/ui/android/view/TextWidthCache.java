@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2007-2015 FBReader.ORG Limited <contact@fbreader.org>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ */
+
+package org.geometerplus.zlibrary.ui.android.view;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * Text measurement results shared by all the paint contexts.
+ *
+ * Widths are kept per font (typeface, size, text scale and measurement
+ * flags of a paint). Strings of CJK and similar chars are measured as a
+ * sum of per-char advances; other strings are looked up as a whole.
+ * Lookups do not allocate; only a stored string is copied. Hits and misses
+ * of per-char advances are counted per char.
+ */
+public final class TextWidthCache {
+	private static final int MAX_FONTS = 16;
+	private static final int MAX_STRINGS_PER_FONT = 4096;
+	// longer strings are rare and not worth keeping
+	private static final int MAX_STRING_LENGTH = 64;
+
+	private static final TextWidthCache ourInstance = new TextWidthCache();
+
+	public static TextWidthCache Instance() {
+		return ourInstance;
+	}
+
+	private static final class Key {
+		private char[] myData;
+		private int myOffset;
+		private int myLength;
+		private int myHash;
+
+		Key set(char[] data, int offset, int length) {
+			myData = data;
+			myOffset = offset;
+			myLength = length;
+			int hash = length;
+			for (int i = offset + length - 1; i >= offset; --i) {
+				hash = 31 * hash + data[i];
+			}
+			myHash = hash;
+			return this;
+		}
+
+		Key copy() {
+			final Key key = new Key();
+			key.myData = new char[myLength];
+			System.arraycopy(myData, myOffset, key.myData, 0, myLength);
+			key.myOffset = 0;
+			key.myLength = myLength;
+			key.myHash = myHash;
+			return key;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key)other;
+			if (myHash != key.myHash || myLength != key.myLength) {
+				return false;
+			}
+			for (int i = 0; i < myLength; ++i) {
+				if (myData[myOffset + i] != key.myData[key.myOffset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return myHash;
+		}
+	}
+
+	// font of a paint: its typeface, size, text scale and measurement flags
+	private static final class FontKey {
+		private Typeface myTypeface;
+		private float mySize;
+		private float myScaleX;
+		private int myFlags;
+
+		FontKey set(Paint paint) {
+			myTypeface = paint.getTypeface();
+			mySize = paint.getTextSize();
+			myScaleX = paint.getTextScaleX();
+			myFlags = paint.getFlags();
+			return this;
+		}
+
+		FontKey copy() {
+			final FontKey key = new FontKey();
+			key.myTypeface = myTypeface;
+			key.mySize = mySize;
+			key.myScaleX = myScaleX;
+			key.myFlags = myFlags;
+			return key;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof FontKey)) {
+				return false;
+			}
+			final FontKey key = (FontKey)other;
+			return
+				mySize == key.mySize &&
+				myScaleX == key.myScaleX &&
+				myFlags == key.myFlags &&
+				(myTypeface == null ? key.myTypeface == null : myTypeface.equals(key.myTypeface));
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = Float.floatToIntBits(mySize);
+			hash = 31 * hash + Float.floatToIntBits(myScaleX);
+			hash = 31 * hash + myFlags;
+			return 31 * hash + (myTypeface != null ? myTypeface.hashCode() : 0);
+		}
+	}
+
+	/**
+	 * Widths measured with one font; created only when the font is met first.
+	 */
+	static final class Font {
+		// advances of fixed advance chars by 256-char pages; NaN means not measured yet
+		private final float[][] myAdvances = new float[256][];
+		private final Key myProbe = new Key();
+		private final LinkedHashMap<Key,Integer> myWidths =
+			new LinkedHashMap<Key,Integer>(256, .75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key,Integer> eldest) {
+					return size() > MAX_STRINGS_PER_FONT;
+				}
+			};
+
+		private Font() {
+		}
+	}
+
+	private final LinkedHashMap<FontKey,Font> myFonts =
+		new LinkedHashMap<FontKey,Font>(MAX_FONTS, .75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<FontKey,Font> eldest) {
+				return size() > MAX_FONTS;
+			}
+		};
+	private final FontKey myFontProbe = new FontKey();
+
+	private final AtomicLong myHitCount = new AtomicLong();
+	private final AtomicLong myMissCount = new AtomicLong();
+
+	private TextWidthCache() {
+	}
+
+	/**
+	 * @return cache of the font the paint is currently set to
+	 */
+	synchronized Font font(Paint paint) {
+		Font font = myFonts.get(myFontProbe.set(paint));
+		if (font == null) {
+			font = new Font();
+			myFonts.put(myFontProbe.copy(), font);
+		}
+		return font;
+	}
+
+	// chars that are drawn with their own advance, without kerning or ligatures
+	private static boolean hasFixedAdvance(char ch) {
+		return
+			// CJK symbols, hiragana, katakana without combining marks U+302A-U+302F, U+3099, U+309A
+			(ch >= 0x3000 && ch <= 0x3029) ||
+			(ch >= 0x3030 && ch <= 0x3098) ||
+			(ch >= 0x309B && ch <= 0x30FF) ||
+			(ch >= 0x3400 && ch <= 0x4DBF) ||	// CJK extension A
+			(ch >= 0x4E00 && ch <= 0x9FFF) ||	// CJK unified ideographs
+			(ch >= 0xAC00 && ch <= 0xD7AF) ||	// hangul syllables
+			(ch >= 0xF900 && ch <= 0xFAFF) ||	// CJK compatibility ideographs
+			(ch >= 0xFF00 && ch <= 0xFFEF);		// halfwidth and fullwidth forms
+	}
+
+	/**
+	 * @return cached width of the string, or -1 if it is not known
+	 * and has to be measured (and stored by putWidth())
+	 */
+	int getWidth(Font font, Paint paint, char[] text, int offset, int length) {
+		boolean fixedAdvance = length > 0;
+		for (int i = offset; i < offset + length; ++i) {
+			if (!hasFixedAdvance(text[i])) {
+				fixedAdvance = false;
+				break;
+			}
+		}
+		if (fixedAdvance) {
+			float width = 0;
+			for (int i = offset; i < offset + length; ++i) {
+				width += advance(font, paint, text, i);
+			}
+			return (int)(width + 0.5f);
+		}
+
+		if (length > MAX_STRING_LENGTH) {
+			myMissCount.incrementAndGet();
+			return -1;
+		}
+		final Integer width;
+		synchronized (font) {
+			width = font.myWidths.get(font.myProbe.set(text, offset, length));
+		}
+		if (width == null) {
+			myMissCount.incrementAndGet();
+			return -1;
+		}
+		myHitCount.incrementAndGet();
+		return width;
+	}
+
+	void putWidth(Font font, char[] text, int offset, int length, int width) {
+		if (length > MAX_STRING_LENGTH) {
+			return;
+		}
+		synchronized (font) {
+			font.myWidths.put(font.myProbe.set(text, offset, length).copy(), width);
+		}
+	}
+
+	private float advance(Font font, Paint paint, char[] text, int index) {
+		final char ch = text[index];
+		synchronized (font) {
+			float[] page = font.myAdvances[ch >> 8];
+			if (page == null) {
+				page = new float[256];
+				Arrays.fill(page, Float.NaN);
+				font.myAdvances[ch >> 8] = page;
+			}
+			float advance = page[ch & 0xFF];
+			if (Float.isNaN(advance)) {
+				myMissCount.incrementAndGet();
+				advance = paint.measureText(text, index, 1);
+				page[ch & 0xFF] = advance;
+			} else {
+				myHitCount.incrementAndGet();
+			}
+			return advance;
+		}
+	}
+
+	public long getHitCount() {
+		return myHitCount.get();
+	}
+
+	public long getMissCount() {
+		return myMissCount.get();
+	}
+
+	/**
+	 * @return share of measurements answered from the cache, from 0 to 1
+	 */
+	public float getHitRate() {
+		final long hits = myHitCount.get();
+		final long total = hits + myMissCount.get();
+		return total > 0 ? ((float)hits) / total : 0;
+	}
+}
@@ -90,6 +90,15 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
     private final Paint myExtraPaint = new Paint();
     private final Path myPath = new Path();
 
+    /**
+     * 当前字体的宽度缓存
+     */
+    private TextWidthCache.Font myFont;
+    /**
+     * 去掉软连字符后的文字缓冲区
+     */
+    private char[] myTextBuffer = new char[64];
+
     /**
      * 几何属性
      */
@@ -140,6 +149,7 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
         }
         myTextPaint.setDither(DitheringOption.getValue());
         myTextPaint.setSubpixelText(SubpixelOption.getValue());
+        myFont = TextWidthCache.Instance().font(myTextPaint);
 
         myLinePaint.setStyle(Paint.Style.STROKE);
 
@@ -351,6 +361,7 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
         myTextPaint.setTextSize(size);
         myTextPaint.setUnderlineText(underline);
         myTextPaint.setStrikeThruText(strikeThrought);
+        myFont = TextWidthCache.Instance().font(myTextPaint);
     }
 
     @Override
@@ -390,30 +401,24 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
 
     @Override
     public int getStringWidth(char[] string, int offset, int length) {
-        boolean containsSoftHyphen = false;
-        for (int i = offset; i < offset + length; ++i) {
-            if (string[i] == (char) 0xAD) {
-                containsSoftHyphen = true;
-                break;
-            }
-        }
-        if (!containsSoftHyphen) {
-            return (int) (myTextPaint.measureText(new String(string, offset, length)) + 0.5f);
-        } else {
-            final char[] corrected = new char[length];
-            int len = 0;
-            for (int o = offset; o < offset + length; ++o) {
-                final char chr = string[o];
-                if (chr != (char) 0xAD) {
-                    corrected[len++] = chr;
-                }
-            }
-            return (int) (myTextPaint.measureText(corrected, 0, len) + 0.5f);
+        final TextWidthCache cache = TextWidthCache.Instance();
+        int width = cache.getWidth(myFont, myTextPaint, string, offset, length);
+        if (width < 0) {
+            width = (int) (measureText(myTextPaint, string, offset, length) + 0.5f);
+            cache.putWidth(myFont, string, offset, length, width);
         }
+        return width;
     }
 
     @Override
     public int getExtraStringWidth(char[] string, int offset, int length) {
+        return (int) (measureText(myExtraPaint, string, offset, length) + 0.5f);
+    }
+
+    /**
+     * 测量文字宽度（忽略软连字符）
+     */
+    private float measureText(Paint paint, char[] string, int offset, int length) {
         boolean containsSoftHyphen = false;
         for (int i = offset; i < offset + length; ++i) {
             if (string[i] == (char) 0xAD) {
@@ -422,18 +427,29 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
             }
         }
         if (!containsSoftHyphen) {
-            return (int) (myExtraPaint.measureText(new String(string, offset, length)) + 0.5f);
-        } else {
-            final char[] corrected = new char[length];
-            int len = 0;
-            for (int o = offset; o < offset + length; ++o) {
-                final char chr = string[o];
-                if (chr != (char) 0xAD) {
-                    corrected[len++] = chr;
-                }
+            return paint.measureText(string, offset, length);
+        }
+        return paint.measureText(myTextBuffer, 0, removeSoftHyphens(string, offset, length));
+    }
+
+    /**
+     * 把去掉软连字符的文字复制到 myTextBuffer
+     *
+     * @return 复制的字符数
+     */
+    private int removeSoftHyphens(char[] string, int offset, int length) {
+        if (myTextBuffer.length < length) {
+            myTextBuffer = new char[length];
+        }
+        final char[] corrected = myTextBuffer;
+        int len = 0;
+        for (int o = offset; o < offset + length; ++o) {
+            final char chr = string[o];
+            if (chr != (char) 0xAD) {
+                corrected[len++] = chr;
             }
-            return (int) (myExtraPaint.measureText(corrected, 0, len) + 0.5f);
         }
+        return len;
     }
 
     @Override
@@ -471,15 +487,8 @@ public final class ZLAndroidPaintContext extends ZLPaintContext {
         if (!containsSoftHyphen) {
             myCanvas.drawText(string, offset, length, x, y, myTextPaint);
         } else {
-            final char[] corrected = new char[length];
-            int len = 0;
-            for (int o = offset; o < offset + length; ++o) {
-                final char chr = string[o];
-                if (chr != (char) 0xAD) {
-                    corrected[len++] = chr;
-                }
-            }
-            myCanvas.drawText(corrected, 0, len, x, y, myTextPaint);
+            final int len = removeSoftHyphens(string, offset, length);
+            myCanvas.drawText(myTextBuffer, 0, len, x, y, myTextPaint);
         }
     }
 